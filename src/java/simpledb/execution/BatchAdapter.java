@@ -0,0 +1,78 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter lets batch consumers read from an operator that only produces
+ * tuples one at a time. Each batch is filled by calling the child's next();
+ * the tuple interface is passed through unchanged.
+ */
+public class BatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private TupleBatch batch;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the operator to read tuples from
+     */
+    public BatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return op itself if it produces batches natively, otherwise an adapter
+     *         around it
+     */
+    public static BatchOpIterator of(OpIterator op) {
+        if (op instanceof BatchOpIterator) {
+            return (BatchOpIterator) op;
+        }
+        return new BatchAdapter(op);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.append(child.next());
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,29 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is implemented by operators that can produce their output a
+ * batch of rows at a time, in column order, instead of one Tuple per call.
+ * Consumers that process batches pay the per-call and per-tuple overhead of
+ * the iterator chain once per {@link TupleBatch#DEFAULT_CAPACITY} rows.
+ * <p>
+ * {@link #next()} and {@link #nextBatch()} read from the same position, so a
+ * consumer may mix them. Operators that only implement {@link OpIterator} can
+ * be consumed in batches through {@link BatchAdapter#of}.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+  /**
+   * Returns the following rows of this operator. The returned batch belongs
+   * to the operator and is cleared and refilled by the next call, so callers
+   * must consume or copy its rows first.
+   *
+   * @return a batch with at least one selected row, or null if there are no
+   *         more rows.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
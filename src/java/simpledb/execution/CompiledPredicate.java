@@ -0,0 +1,393 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+
+import java.util.List;
+
+/**
+ * CompiledPredicate evaluates a Predicate, or the conjunction of several,
+ * without going through {@link simpledb.storage.Field#compare}. Compiling
+ * picks one evaluator class per field type and operator up front, so
+ * evaluating a row neither switches on the operator nor dispatches on the
+ * operand's Field type: int evaluators compare the primitive int against a
+ * constant, and string evaluators compare the stored bytes.
+ * <p>
+ * A query compiles its predicates once when it is planned or opened and then
+ * calls {@link #test} per tuple or {@link #filter} per batch. Results are the
+ * same as those of {@link Predicate#filter(Tuple)}.
+ */
+public abstract class CompiledPredicate {
+
+    /**
+     * @return true if t satisfies the predicate
+     */
+    public abstract boolean test(Tuple t);
+
+    /**
+     * Removes the selected rows of batch that do not satisfy the predicate
+     * from its selection vector.
+     */
+    public abstract void filter(TupleBatch batch);
+
+    /**
+     * Compiles a single predicate.
+     */
+    public static CompiledPredicate compile(Predicate p) {
+        int field = p.getField();
+        Predicate.Op op = p.getOp();
+        if (p.getOperand().getType() == Type.INT_TYPE) {
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, v);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterOrEqual(field, v);
+            case LESS_THAN:
+                return new IntLessThan(field, v);
+            case LESS_THAN_OR_EQ:
+                return new IntLessOrEqual(field, v);
+            }
+        } else {
+            String v = ((StringField) p.getOperand()).getValue();
+            if (op == Predicate.Op.LIKE) {
+                return new StringContains(field, v);
+            }
+            return new StringCompare(field, v, op);
+        }
+        throw new IllegalArgumentException("cannot compile " + p);
+    }
+
+    /**
+     * Compiles the conjunction of the given predicates; an empty list accepts
+     * every row.
+     */
+    public static CompiledPredicate compile(List<Predicate> conjuncts) {
+        if (conjuncts.size() == 1) {
+            return compile(conjuncts.get(0));
+        }
+        CompiledPredicate[] parts = new CompiledPredicate[conjuncts.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = compile(conjuncts.get(i));
+        }
+        return new And(parts);
+    }
+
+    /**
+     * Compiles the conjunction of the given predicates for rows of the given
+     * schema.
+     *
+     * @throws IllegalArgumentException if a predicate refers to a field that
+     *         td does not have or compares it with an operand of another type
+     */
+    public static CompiledPredicate compile(List<Predicate> conjuncts, TupleDesc td) {
+        for (Predicate p : conjuncts) {
+            if (p.getField() < 0 || p.getField() >= td.numFields()
+                    || td.getFieldType(p.getField()) != p.getOperand().getType()) {
+                throw new IllegalArgumentException("predicate " + p + " does not match " + td);
+            }
+        }
+        return compile(conjuncts);
+    }
+
+    private static final class And extends CompiledPredicate {
+        private final CompiledPredicate[] parts;
+
+        And(CompiledPredicate[] parts) {
+            this.parts = parts;
+        }
+
+        public boolean test(Tuple t) {
+            for (CompiledPredicate p : parts) {
+                if (!p.test(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void filter(TupleBatch batch) {
+            // each part only looks at the rows the previous ones kept
+            for (int i = 0; i < parts.length && !batch.isEmpty(); i++) {
+                parts[i].filter(batch);
+            }
+        }
+    }
+
+    // One class per operator keeps the comparison inside each loop constant.
+
+    private static final class IntEquals extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return ((IntField) t.getField(field)).getValue() == v;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (col[r] == v) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntNotEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return ((IntField) t.getField(field)).getValue() != v;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (col[r] != v) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntGreaterThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return ((IntField) t.getField(field)).getValue() > v;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (col[r] > v) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+    }
+
+    private static final class IntGreaterOrEqual extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntGreaterOrEqual(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return ((IntField) t.getField(field)).getValue() >= v;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (col[r] >= v) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+    }
+
+    private static final class IntLessThan extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntLessThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return ((IntField) t.getField(field)).getValue() < v;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (col[r] < v) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+    }
+
+    private static final class IntLessOrEqual extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntLessOrEqual(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return ((IntField) t.getField(field)).getValue() <= v;
+        }
+
+        public void filter(TupleBatch batch) {
+            int[] col = batch.getIntColumn(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (col[r] <= v) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+    }
+
+    /**
+     * Encodes a string operand the way StringField.serialize stores it: one
+     * byte per char, truncated to Type.STRING_LEN.
+     */
+    static byte[] storedBytes(String v) {
+        byte[] key = new byte[Math.min(v.length(), Type.STRING_LEN)];
+        for (int k = 0; k < key.length; k++) {
+            key[k] = (byte) v.charAt(k);
+        }
+        return key;
+    }
+
+    private static final class StringCompare extends CompiledPredicate {
+        private final int field;
+        private final String v;
+        private final byte[] key;
+        // bit (sign(cmp) + 1) is set for each comparison result that matches
+        private final int accept;
+
+        StringCompare(int field, String v, Predicate.Op op) {
+            this.field = field;
+            this.v = v;
+            this.key = storedBytes(v);
+            switch (op) {
+            case EQUALS: accept = 0b010; break;
+            case NOT_EQUALS: accept = 0b101; break;
+            case GREATER_THAN: accept = 0b100; break;
+            case GREATER_THAN_OR_EQ: accept = 0b110; break;
+            case LESS_THAN: accept = 0b001; break;
+            case LESS_THAN_OR_EQ: accept = 0b011; break;
+            default: throw new IllegalArgumentException("not an ordering: " + op);
+            }
+        }
+
+        private boolean accepts(int cmp) {
+            return (accept & (1 << (Integer.signum(cmp) + 1))) != 0;
+        }
+
+        public boolean test(Tuple t) {
+            return accepts(((StringField) t.getField(field)).getValue().compareTo(v));
+        }
+
+        public void filter(TupleBatch batch) {
+            byte[] col = batch.getStringColumn(field);
+            int[] lens = batch.getStringLengths(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (accepts(compareBytes(col, r * Type.STRING_LEN, lens[r], key))) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+
+        /** Compares like String.compareTo on the single-byte characters. */
+        private static int compareBytes(byte[] col, int base, int len, byte[] key) {
+            int n = Math.min(len, key.length);
+            for (int k = 0; k < n; k++) {
+                int c = (col[base + k] & 0xff) - (key[k] & 0xff);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return len - key.length;
+        }
+    }
+
+    private static final class StringContains extends CompiledPredicate {
+        private final int field;
+        private final String v;
+        private final byte[] key;
+
+        StringContains(int field, String v) {
+            this.field = field;
+            this.v = v;
+            this.key = storedBytes(v);
+        }
+
+        public boolean test(Tuple t) {
+            return ((StringField) t.getField(field)).getValue().contains(v);
+        }
+
+        public void filter(TupleBatch batch) {
+            byte[] col = batch.getStringColumn(field);
+            int[] lens = batch.getStringLengths(field);
+            int[] sel = batch.selectionVector();
+            int n = batch.size();
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                int r = sel[i];
+                if (contains(col, r * Type.STRING_LEN, lens[r])) sel[kept++] = r;
+            }
+            batch.select(kept);
+        }
+
+        private boolean contains(byte[] col, int base, int len) {
+            outer:
+            for (int start = 0; start + key.length <= len; start++) {
+                for (int k = 0; k < key.length; k++) {
+                    if (col[base + start + k] != key[k]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange runs each of its children on a worker of a fork-join pool and
+ * merges their output into a single stream of tuples. Workers hand tuples
+ * over in chunks of {@link TupleBatch#DEFAULT_CAPACITY} through a bounded
+ * queue, so a slow consumer holds the workers back instead of buffering the
+ * whole result. The order of the output is arbitrary.
+ * <p>
+ * Each child is opened, drained and closed on its worker; the caller must
+ * not open the children itself. The first exception thrown by a child is
+ * rethrown from {@link #hasNext()} or {@link #next()}. Closing the exchange
+ * stops the workers and waits until every child has been closed.
+ */
+public class Exchange implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pool shared by all exchanges; its size is the number of processors. */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    // chunks each worker may have queued before it has to wait
+    private static final int CHUNKS_PER_CHILD = 4;
+
+    /** Queued by a worker when its child is exhausted or failed. */
+    private static final Object END = new Object();
+
+    private static final class Failure {
+        final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final OpIterator[] children;
+    private final ForkJoinPool pool;
+
+    private transient BlockingQueue<Object> queue;
+    private transient List<ForkJoinTask<?>> tasks;
+    private transient volatile boolean cancelled;
+    // workers that have not queued END yet, as seen by the consumer
+    private int running;
+    private Iterator<Tuple> chunk;
+    private boolean isOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the operators to run in parallel; they must have the same
+     *            TupleDesc and may not be shared with other operators
+     */
+    public Exchange(List<? extends OpIterator> children) {
+        this(children, POOL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the operators to run in parallel; they must have the same
+     *            TupleDesc and may not be shared with other operators
+     * @param pool
+     *            the pool to run the children on
+     */
+    public Exchange(List<? extends OpIterator> children, ForkJoinPool pool) {
+        if (children.isEmpty()) {
+            throw new IllegalArgumentException("an exchange needs at least one child");
+        }
+        this.children = children.toArray(new OpIterator[0]);
+        this.pool = pool;
+        this.isOpen = false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen) {
+            throw new DbException("exchange is already open");
+        }
+        queue = new ArrayBlockingQueue<>(CHUNKS_PER_CHILD * children.length + children.length);
+        tasks = new ArrayList<>(children.length);
+        cancelled = false;
+        running = children.length;
+        chunk = null;
+        for (OpIterator child : children) {
+            tasks.add(pool.submit(() -> produce(child)));
+        }
+        isOpen = true;
+    }
+
+    /**
+     * Body of a worker: drains child into the queue.
+     */
+    private void produce(OpIterator child) {
+        try {
+            child.open();
+            try {
+                List<Tuple> out = new ArrayList<>(TupleBatch.DEFAULT_CAPACITY);
+                while (!cancelled && child.hasNext()) {
+                    out.add(child.next());
+                    if (out.size() == TupleBatch.DEFAULT_CAPACITY) {
+                        put(out);
+                        out = new ArrayList<>(TupleBatch.DEFAULT_CAPACITY);
+                    }
+                }
+                if (!out.isEmpty()) {
+                    put(out);
+                }
+            } finally {
+                child.close();
+            }
+        } catch (Throwable e) {
+            put(new Failure(e));
+        } finally {
+            put(END);
+        }
+    }
+
+    /**
+     * Queues o, waiting for space unless the exchange has been closed, in
+     * which case o is dropped. Waiting is reported to the pool so that it can
+     * start another worker in the meantime.
+     */
+    private void put(Object o) {
+        ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+            boolean done = false;
+
+            public boolean block() throws InterruptedException {
+                while (!done && !cancelled) {
+                    done = queue.offer(o, 10, TimeUnit.MILLISECONDS);
+                }
+                return true;
+            }
+
+            public boolean isReleasable() {
+                return done || cancelled || (done = queue.offer(o));
+            }
+        };
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!isOpen) {
+            throw new IllegalStateException("exchange is not open");
+        }
+        while (chunk == null || !chunk.hasNext()) {
+            if (running == 0) {
+                return false;
+            }
+            Object o;
+            try {
+                o = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for exchange workers");
+            }
+            if (o == END) {
+                running--;
+            } else if (o instanceof Failure) {
+                rethrow(((Failure) o).cause);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<Tuple> tuples = (List<Tuple>) o;
+                chunk = tuples.iterator();
+            }
+        }
+        return true;
+    }
+
+    private static void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new DbException("exchange worker failed: " + e);
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return chunk.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (!isOpen) {
+            return;
+        }
+        isOpen = false;
+        cancelled = true;
+        // workers notice the flag between tuples and close their children
+        for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+        }
+        queue.clear();
+        chunk = null;
+    }
+}
@@ -0,0 +1,199 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.ScanRing;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan reads a HeapFile on several threads. The file's pages are
+ * split into morsels of {@link #MORSEL_PAGES} consecutive pages, and each
+ * worker claims the next unclaimed morsel whenever it finishes one, so fast
+ * workers take over the work of slow ones and all finish at about the same
+ * time. The workers run under an {@link Exchange}, which merges their output.
+ * <p>
+ * The scan returns the same tuples as a {@link SeqScan} with the same
+ * arguments, in no particular order. Pages added to the file after the scan
+ * was opened are not read. Tables that are not HeapFiles are scanned on a
+ * single worker.
+ */
+public class ParallelSeqScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker claims at a time. */
+    public static final int MORSEL_PAGES = 16;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int parallelism;
+    private final List<Predicate> predicates;
+    private final int[] projection;
+    private Exchange exchange;
+
+    /**
+     * Creates a parallel scan over the specified table with one worker per
+     * processor.
+     *
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Runtime.getRuntime().availableProcessors(),
+                Collections.emptyList(), null);
+    }
+
+    /**
+     * Creates a parallel scan that returns only the tuples that satisfy all
+     * of the given predicates, holding only the projected fields.
+     *
+     * @param parallelism
+     *            the number of workers, at least 1
+     * @see SeqScan#SeqScan(TransactionId, int, String, List, int[])
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int parallelism,
+                           List<Predicate> predicates, int[] projection) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.parallelism = parallelism;
+        this.predicates = predicates;
+        this.projection = projection;
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc schema = Database.getCatalog().getTupleDesc(tableid);
+        return SeqScan.aliased(projection == null ? schema : schema.project(projection), tableAlias);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (exchange != null) {
+            throw new DbException("scan is already open");
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        List<OpIterator> workers = new ArrayList<>();
+        if (file instanceof HeapFile) {
+            HeapFile heapFile = (HeapFile) file;
+            int numPages = heapFile.numPages();
+            AtomicInteger nextMorsel = new AtomicInteger();
+            int n = Math.max(1, Math.min(parallelism, (numPages + MORSEL_PAGES - 1) / MORSEL_PAGES));
+            for (int i = 0; i < n; i++) {
+                workers.add(new MorselWorker(heapFile, numPages, nextMorsel));
+            }
+        } else {
+            workers.add(new SeqScan(tid, tableid, tableAlias, predicates, projection));
+        }
+        exchange = new Exchange(workers);
+        exchange.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (exchange == null) {
+            throw new IllegalStateException("scan is not open");
+        }
+        return exchange.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (exchange == null) {
+            throw new IllegalStateException("scan is not open");
+        }
+        return exchange.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (exchange != null) {
+            exchange.close();
+            exchange = null;
+        }
+    }
+
+    /**
+     * One worker of the scan: reads morsels until none are left.
+     */
+    private class MorselWorker implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HeapFile file;
+        private final int numPages;
+        private final AtomicInteger nextMorsel;
+        private ScanRing ring;
+        private DbFileIterator morsel;
+        private boolean done;
+
+        MorselWorker(HeapFile file, int numPages, AtomicInteger nextMorsel) {
+            this.file = file;
+            this.numPages = numPages;
+            this.nextMorsel = nextMorsel;
+        }
+
+        public void open() {
+            // every worker reads through its own ring, see SeqScan
+            ring = Database.getBufferPool().newScanRing(numPages);
+            done = false;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (!done && (morsel == null || !morsel.hasNext())) {
+                if (morsel != null) {
+                    morsel.close();
+                    morsel = null;
+                }
+                int first = nextMorsel.getAndIncrement() * MORSEL_PAGES;
+                if (first >= numPages) {
+                    done = true;
+                    break;
+                }
+                morsel = file.iterator(tid, ring, first, Math.min(first + MORSEL_PAGES, numPages),
+                        predicates, projection);
+                morsel.open();
+            }
+            return !done;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return morsel.next();
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("morsel workers cannot be rewound");
+        }
+
+        public TupleDesc getTupleDesc() {
+            return ParallelSeqScan.this.getTupleDesc();
+        }
+
+        public void close() {
+            if (morsel != null) {
+                morsel.close();
+                morsel = null;
+            }
+            Database.getBufferPool().releaseScanRing(ring);
+            ring = null;
+        }
+    }
+}
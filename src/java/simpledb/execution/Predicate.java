@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -12,6 +13,12 @@ public class Predicate implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private final int field;
+    private final Op op;
+    private final Field operand;
+    // built on first use; CompiledPredicate is not serializable
+    private transient CompiledPredicate compiled;
+
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -59,6 +66,9 @@ public class Predicate implements Serializable {
      */
     public Predicate(int field, Op op, Field operand) {
         // some code goes here
+        this.field = field;
+        this.op = op;
+        this.operand = operand;
     }
 
     /**
@@ -67,7 +77,7 @@ public class Predicate implements Serializable {
     public int getField()
     {
         // some code goes here
-        return -1;
+        return field;
     }
 
     /**
@@ -76,7 +86,7 @@ public class Predicate implements Serializable {
     public Op getOp()
     {
         // some code goes here
-        return null;
+        return op;
     }
     
     /**
@@ -85,7 +95,7 @@ public class Predicate implements Serializable {
     public Field getOperand()
     {
         // some code goes here
-        return null;
+        return operand;
     }
     
     /**
@@ -100,7 +110,34 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return false;
+        return t.getField(field).compare(op, operand);
+    }
+
+    /**
+     * Removes the selected rows of batch that do not satisfy this predicate
+     * from its selection vector. The predicate is compiled on first use, see
+     * {@link CompiledPredicate}; the result is the same as that of
+     * {@link #filter(Tuple)} on each row.
+     *
+     * @param batch
+     *            The batch to filter; its rows must have the schema the
+     *            field number refers to
+     */
+    public void filter(TupleBatch batch) {
+        compile().filter(batch);
+    }
+
+    /**
+     * @return this predicate compiled into an evaluator specialized for the
+     *         operand's type and the operator
+     */
+    public CompiledPredicate compile() {
+        CompiledPredicate c = compiled;
+        if (c == null) {
+            c = CompiledPredicate.compile(this);
+            compiled = c;
+        }
+        return c;
     }
 
     /**
@@ -109,6 +146,6 @@ public class Predicate implements Serializable {
      */
     public String toString() {
         // some code goes here
-        return "";
+        return "f = " + field + " op = " + op + " operand = " + operand;
     }
 }
@@ -7,7 +7,10 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.ScanRing;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -16,8 +19,15 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Rows can also be read a batch at a time with {@link #nextBatch()}, which
+ * copies them from the pages into column vectors without creating tuples.
+ * <p>
+ * A scan can be given predicates and a projection to push down into the
+ * table's DbFile, which then returns only the matching rows and only the
+ * projected fields.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -25,6 +35,10 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    private List<Predicate> predicates;
+    private int[] projection;
+    private ScanRing scanRing;
+    private TupleBatch batch;
     private boolean isOpen;
 
 
@@ -45,9 +59,29 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Collections.emptyList(), null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples of the table
+     * that satisfy all of the given predicates, holding only the projected
+     * fields.
+     *
+     * @param predicates
+     *            predicates on the table's fields, evaluated by the table's
+     *            DbFile; may be empty
+     * @param projection
+     *            indexes of the table's fields to return, in order, or null
+     *            for all fields
+     * @see DbFile#iterator(TransactionId, ScanRing, List, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+                   List<Predicate> predicates, int[] projection) {
         this.tid= tid;
         this.tableid= tableid;
         this.tableAlias= tableAlias;
+        this.predicates = predicates;
+        this.projection = projection;
         this.dbFileIterator = null;
         this.isOpen = false;
     }
@@ -86,6 +120,7 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.batch = null;
         this.isOpen = false;
     }
 
@@ -100,7 +135,13 @@ public class SeqScan implements OpIterator {
         if (isOpen) {
             throw new DbException("");
         }
-        this.dbFileIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        // large tables are read through a private ring so that the scan
+        // does not flush the pages other queries are using
+        if (file instanceof HeapFile) {
+            this.scanRing = Database.getBufferPool().newScanRing(((HeapFile) file).numPages());
+        }
+        this.dbFileIterator = file.iterator(tid, scanRing, predicates, projection);
         this.dbFileIterator.open();
         this.isOpen = true;
     }
@@ -116,16 +157,30 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        TupleDesc schema = Database.getCatalog().getTupleDesc(tableid);
+        return aliased(getTableTupleDesc(), tableAlias);
+    }
+
+    /**
+     * @return schema with every field name prefixed by "tableAlias."
+     */
+    static TupleDesc aliased(TupleDesc schema, String tableAlias) {
         String [] schemaFieldNames = new String[schema.numFields()];
         Type [] schemaTypes = new Type[schema.numFields()];
         for (int i = 0; i < schema.numFields(); i++) {
-            schemaFieldNames[i] = this.tableAlias + "." + schema.getFieldName(i);
+            schemaFieldNames[i] = tableAlias + "." + schema.getFieldName(i);
             schemaTypes[i] = schema.getFieldType(i);
         }
         return new TupleDesc(schemaTypes, schemaFieldNames);
     }
 
+    /**
+     * @return the TupleDesc of the rows the DbFile returns, after projection
+     */
+    private TupleDesc getTableTupleDesc() {
+        TupleDesc schema = Database.getCatalog().getTupleDesc(tableid);
+        return projection == null ? schema : schema.project(projection);
+    }
+
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
         if (!isOpen) {
@@ -143,10 +198,28 @@ public class SeqScan implements OpIterator {
         return this.dbFileIterator.next();
     }
 
+    /**
+     * Returns the following rows of the table. The batch uses the table's
+     * TupleDesc after projection, without the alias prefix, and tuples
+     * materialized from it carry the RecordId of their slot.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!isOpen) {
+            throw new IllegalStateException("");
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTableTupleDesc());
+        }
+        batch.clear();
+        return this.dbFileIterator.nextBatch(batch) == 0 ? null : batch;
+    }
+
     public void close() {
         // some code goes here
         isOpen = false;
         this.dbFileIterator.close();
+        Database.getBufferPool().releaseScanRing(scanRing);
+        scanRing = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages live in T1
+ * (seen once recently) or T2 (seen at least twice); ghost lists B1 and B2
+ * remember the ids of pages recently evicted from T1 and T2. A hit in a ghost
+ * list shifts the target size p of T1 towards the list that would have kept
+ * the page, so the policy adapts between recency and frequency as the
+ * workload changes.
+ * <p>
+ * The BufferPool chooses a victim before it admits the missing page, so the
+ * adaptation of p happens on admission rather than inside REPLACE as in the
+ * paper; the effect on later victims is the same.
+ */
+public class ArcPolicy implements ReplacementPolicy {
+
+    private final int capacity;
+    private int p;
+
+    // iteration order of the sets is LRU first
+    private final LinkedHashSet<PageId> t1;
+    private final LinkedHashSet<PageId> t2;
+    private final LinkedHashSet<PageId> b1;
+    private final LinkedHashSet<PageId> b2;
+
+    /**
+     * @param numPages the number of pages the policy should expect to track
+     */
+    public ArcPolicy(int numPages) {
+        this.capacity = Math.max(numPages, 1);
+        this.p = 0;
+        this.t1 = new LinkedHashSet<>();
+        this.t2 = new LinkedHashSet<>();
+        this.b1 = new LinkedHashSet<>();
+        this.b2 = new LinkedHashSet<>();
+    }
+
+    public void recordAccess(PageId pid) {
+        if (t1.remove(pid) || t2.remove(pid)) {
+            t2.add(pid);
+        } else if (b1.remove(pid)) {
+            p = Math.min(capacity, p + Math.max(b2.size() / Math.max(b1.size(), 1), 1));
+            t2.add(pid);
+        } else if (b2.remove(pid)) {
+            p = Math.max(0, p - Math.max(b1.size() / Math.max(b2.size(), 1), 1));
+            t2.add(pid);
+        } else {
+            t1.add(pid);
+        }
+        trimGhosts();
+    }
+
+    public void remove(PageId pid) {
+        if (t1.remove(pid)) {
+            b1.add(pid);
+        } else if (t2.remove(pid)) {
+            b2.add(pid);
+        }
+        trimGhosts();
+    }
+
+    public void discard(PageId pid) {
+        if (!t1.remove(pid)) {
+            t2.remove(pid);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim;
+        if (!t1.isEmpty() && t1.size() > p) {
+            victim = firstEvictable(t1, evictable);
+            if (victim == null) {
+                victim = firstEvictable(t2, evictable);
+            }
+        } else {
+            victim = firstEvictable(t2, evictable);
+            if (victim == null) {
+                victim = firstEvictable(t1, evictable);
+            }
+        }
+        return victim;
+    }
+
+    /** @return the current target size of T1 */
+    public int getTarget() {
+        return p;
+    }
+
+    private void trimGhosts() {
+        while (t1.size() + b1.size() > capacity && !b1.isEmpty()) {
+            removeOldest(b1);
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity && !b2.isEmpty()) {
+            removeOldest(b2);
+        }
+    }
+
+    private static void removeOldest(LinkedHashSet<PageId> list) {
+        Iterator<PageId> oldest = list.iterator();
+        oldest.next();
+        oldest.remove();
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> list, Predicate<PageId> evictable) {
+        for (PageId pid : list) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,265 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BackgroundWriter takes the writing of committed pages off the commit and
+ * eviction paths. At commit the pool hands it an image of each page the
+ * transaction dirtied; a background thread later writes the queued images
+ * table by table, sorted by page number, and issues one gathering write for
+ * each run of adjacent pages (see {@link DbFile#writePages}).
+ * <p>
+ * Only committed images are queued, so writing them never steals: a page a
+ * running transaction has modified since is not touched on disk. A page with
+ * a queued image is not yet clean, and the pool avoids evicting it while
+ * other victims exist. A round starts once {@link #TRICKLE_MILLIS} have
+ * passed since the first image was queued, or earlier when the queue holds
+ * an eighth of the pool or eviction runs short of clean pages.
+ * <p>
+ * All writes, including the synchronous ones of
+ * {@link BufferPool#flushAllPages}, are serialized, so an older image of a
+ * page can never be written after a newer one.
+ * <p>
+ * Each written image is forced to disk and then reported to the log, which
+ * keeps the pages whose logged updates are not durable yet for its
+ * checkpoints (see {@link LogFile#pageWritten}).
+ * <p>
+ * Images a round fails to write stay queued, and the rounds retrying them
+ * back off up to {@link #MAX_RETRY_MILLIS}. Until a write succeeds again the
+ * pool learns of the failure from {@link #failure}.
+ */
+class BackgroundWriter {
+
+    /** Longest time a committed page waits before a round writes it. */
+    static final long TRICKLE_MILLIS = 50;
+    /** Longest time between the rounds that retry failed writes. */
+    static final long MAX_RETRY_MILLIS = 5000;
+
+    // shared by all buffer pools
+    private static final ScheduledThreadPoolExecutor IO = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "simpledb-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    static {
+        IO.setKeepAliveTime(60, TimeUnit.SECONDS);
+        IO.allowCoreThreadTimeOut(true);
+    }
+
+    // committed images that have not been written yet
+    private final ConcurrentMap<PageId, Page> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // true while a round is scheduled or running
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // the last round scheduled after a delay, which wakeup starts early
+    private volatile ScheduledFuture<?> delayed;
+    private final int eagerPages;
+    // held while writing
+    private final Object writeLock = new Object();
+    // why the last round failed, or null if every image queued before the
+    // last successful write of all of them is on disk
+    private volatile IOException failure;
+    // rounds failed in a row, guarded by writeLock
+    private int failedRounds;
+
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+
+    /**
+     * @param poolPages number of frames in the pool this writer serves
+     */
+    BackgroundWriter(int poolPages) {
+        this.eagerPages = Math.max(1, poolPages / 8);
+    }
+
+    long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    /**
+     * Queues the committed image of a page, replacing any older image of it
+     * that has not been written yet. The image must not be modified
+     * afterwards.
+     */
+    void enqueue(Page image) {
+        if (pending.put(image.getId(), image) == null && pendingCount.incrementAndGet() >= eagerPages) {
+            wakeup();
+        } else if (scheduled.compareAndSet(false, true)) {
+            delayed = IO.schedule(this::round, TRICKLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true if pid has a committed image that is not on disk yet
+     */
+    boolean isPending(PageId pid) {
+        return pending.containsKey(pid);
+    }
+
+    /**
+     * @return the committed image of pid that is not on disk yet, or null
+     */
+    Page pendingImage(PageId pid) {
+        return pending.get(pid);
+    }
+
+    /**
+     * @return why the last round failed to write its images, or null if
+     *         it did not fail
+     */
+    IOException failure() {
+        return failure;
+    }
+
+    /**
+     * Starts a round now, in place of a round that is waiting for its delay
+     * to pass, unless one is already running. A writer that is failing keeps
+     * to its backoff.
+     */
+    void wakeup() {
+        if (failure != null) {
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            IO.execute(this::round);
+            return;
+        }
+        ScheduledFuture<?> d = delayed;
+        // fails if the round has started, or another wakeup took it over
+        if (d != null && d.cancel(false)) {
+            IO.execute(this::round);
+        }
+    }
+
+    private void round() {
+        long delay = TRICKLE_MILLIS;
+        try {
+            flushAll();
+        } catch (IOException | RuntimeException e) {
+            // the images stay queued and are retried by a later round
+            delay = failed(e);
+        } finally {
+            scheduled.set(false);
+        }
+        if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+            delayed = IO.schedule(this::round, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Records the failure of a round.
+     *
+     * @return the delay before the next round, doubled for each round
+     *         failed in a row up to {@link #MAX_RETRY_MILLIS}
+     */
+    private long failed(Exception e) {
+        synchronized (writeLock) {
+            if (failedRounds == 0) {
+                // reported once, not on every retry
+                e.printStackTrace();
+            }
+            failure = e instanceof IOException ? (IOException) e
+                    : new IOException("background write failed", e);
+            failedRounds = Math.min(failedRounds + 1, 30);
+            return Math.min(MAX_RETRY_MILLIS, TRICKLE_MILLIS << failedRounds);
+        }
+    }
+
+    /**
+     * Writes every queued image.
+     */
+    void flushAll() throws IOException {
+        synchronized (writeLock) {
+            write(new ArrayList<>(pending.values()));
+            failure = null;
+            failedRounds = 0;
+        }
+    }
+
+    /**
+     * Writes the queued images of the given pages, if any.
+     */
+    void flush(Collection<PageId> pids) throws IOException {
+        synchronized (writeLock) {
+            List<Page> images = new ArrayList<>();
+            for (PageId pid : pids) {
+                Page image = pending.get(pid);
+                if (image != null) {
+                    images.add(image);
+                }
+            }
+            write(images);
+        }
+    }
+
+    /**
+     * Writes page itself in place of any queued image of it.
+     */
+    void writeThrough(Page page) throws IOException {
+        synchronized (writeLock) {
+            DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            file.writePage(page);
+            pagesWritten.increment();
+            writeCalls.increment();
+            // the log may drop the page's records once it is durable
+            file.force();
+            Database.getLogFile().pageWritten(page.getId(), page.getLSN());
+            if (pending.remove(page.getId()) != null) {
+                pendingCount.decrementAndGet();
+            }
+        }
+    }
+
+    /** Writes images grouped by table; requires writeLock. */
+    private void write(List<Page> images) throws IOException {
+        if (images.isEmpty()) {
+            return;
+        }
+        long lsn = 0;
+        for (Page image : images) {
+            lsn = Math.max(lsn, image.getLSN());
+        }
+        // write ahead; images are queued once their commit forced the log,
+        // so this returns at once
+        LogFile log = Database.getLogFile();
+        log.force(lsn);
+        Map<Integer, List<Page>> byTable = new HashMap<>();
+        for (Page image : images) {
+            byTable.computeIfAbsent(image.getId().getTableId(), k -> new ArrayList<>()).add(image);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            List<Page> tablePages = e.getValue();
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+            writeCalls.add(file.writePages(Collections.unmodifiableList(tablePages)));
+            pagesWritten.add(tablePages.size());
+            file.force();
+            for (Page image : tablePages) {
+                log.pageWritten(image.getId(), image.getLSN());
+                // a newer image queued meanwhile is written by a later round
+                if (pending.remove(image.getId(), image)) {
+                    pendingCount.decrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -4,14 +4,30 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.Snapshot;
+import simpledb.transaction.SnapshotManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import javax.xml.crypto.Data;
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,7 +36,29 @@ import java.util.concurrent.ConcurrentMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locks are granted by a {@link LockManager}
+ * and held until the transaction completes. With record-level locking on,
+ * writers lock single records and take intention locks on their pages and
+ * tables instead, so that they can change different slots of one page at
+ * the same time; see {@link #setRecordLocking}. With multi-versioning on,
+ * scans read a snapshot of each page instead and take no locks at all; see
+ * {@link #setMultiVersion}.
+ * <p>
+ * Concurrency: resident pages live in a concurrent page table, so hits take
+ * no lock. A page only enters or leaves the table while the stripe latch for
+ * its PageId is held, and concurrent misses on the same PageId share a single
+ * disk read. The replacement policy and the frame count are guarded by a
+ * separate frame lock that is held only for bookkeeping, never across disk
+ * reads; hits that find the frame lock busy queue their access for the next
+ * holder instead of waiting. The frame lock may be acquired before a stripe
+ * latch, never after one.
+ * <p>
+ * Sequential reads are detected per scan and per table, and the pages that
+ * follow are read ahead in the background, see {@link Prefetcher}.
+ * <p>
+ * Pages are not written at commit or eviction time. A commit logs the pages
+ * it dirtied and hands their committed images to a {@link BackgroundWriter},
+ * and eviction prefers pages whose images have already reached disk.
  * 
  * @Threadsafe, all fields are final
  */
@@ -35,19 +73,196 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private int numPages;
+    /** Largest number of frames a single sequential scan may occupy. */
+    public static final int MAX_RING_PAGES = 16;
+
+    /** Number of stripe latches guarding the page table. */
+    private static final int LATCH_STRIPES = 64;
+
+    /** Most accesses queued while the frame lock is busy; more are dropped. */
+    private static final int MAX_PENDING_ACCESSES = 1024;
+
+    private final int numPages;
     // page table
-    private ConcurrentMap<PageId, Page> bufferPoolMap;
+    private final ConcurrentMap<PageId, Page> bufferPoolMap;
+    // pages that are being read from disk, so that concurrent misses share one read
+    private final ConcurrentMap<PageId, FutureTask<Page>> loading;
+    private final Object[] latches;
+
+    private final ReentrantLock frameLock = new ReentrantLock();
+    // signalled when a reserved frame is filled or a frame is freed
+    private final Condition framesChanged = frameLock.newCondition();
+    // decides which page to evict when the pool is full; guarded by frameLock
+    private final ReplacementPolicy policy;
+    // resident plus reserved frames; guarded by frameLock
+    private int usedFrames;
+    // frames reserved by reads that are still in progress; guarded by frameLock
+    private int reservedFrames;
+    // pages read through a scan ring and not yet adopted; written under frameLock
+    private final ConcurrentMap<PageId, ScanRing> ringOwner;
+    // hits recorded while frameLock was busy
+    private final ConcurrentLinkedQueue<PageId> pendingAccesses;
+    private final AtomicInteger pendingCount;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Prefetcher prefetcher;
+    private final BackgroundWriter writer;
+    private final LockManager lockManager;
+    private volatile boolean recordLocking;
+    private final SnapshotManager snapshots;
+    // history of the pages that changed since the oldest running snapshot
+    // was taken, kept here so that it survives eviction
+    private final ConcurrentMap<PageId, SlotVersions> versions;
+    private volatile boolean multiVersion;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * replacement policy named by the
+     * {@value ReplacementPolicy#POLICY_PROPERTY} system property.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ReplacementPolicy.fromSystemProperty(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to choose pages to evict
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         // some code goes here
         this.numPages = numPages;
         this.bufferPoolMap = new ConcurrentHashMap<>();
+        this.loading = new ConcurrentHashMap<>();
+        this.latches = new Object[LATCH_STRIPES];
+        for (int i = 0; i < LATCH_STRIPES; i++) {
+            latches[i] = new Object();
+        }
+        this.policy = policy;
+        this.usedFrames = 0;
+        this.reservedFrames = 0;
+        this.ringOwner = new ConcurrentHashMap<>();
+        this.pendingAccesses = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicInteger();
+        this.prefetcher = new Prefetcher(this);
+        this.writer = new BackgroundWriter(numPages);
+        this.lockManager = new LockManager();
+        this.snapshots = new SnapshotManager();
+        this.versions = new ConcurrentHashMap<>();
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the number of getPage calls that found the page resident */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that had to read the page */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Turns background read-ahead for sequential access on or off. It is on
+     * by default.
+     */
+    public void setPrefetching(boolean enabled) {
+        prefetcher.setEnabled(enabled);
+    }
+
+    /** @return the number of pages read ahead in the background */
+    public long getPrefetchCount() {
+        return prefetcher.getIssuedCount();
+    }
+
+    /**
+     * @return the number of pages read ahead that a getPage call asked for
+     *         before they left the pool
+     */
+    public long getPrefetchHitCount() {
+        return prefetcher.getHitCount();
+    }
+
+    /**
+     * @return the number of pages read ahead that left the pool without
+     *         being asked for
+     */
+    public long getPrefetchWasteCount() {
+        return prefetcher.getWasteCount();
+    }
+
+    /**
+     * Turns record-level locking for inserts and deletes on or off. It is
+     * off by default, and should only be changed while no transaction runs.
+     * <p>
+     * When it is on, every page lock comes with an intention lock on the
+     * table, and inserts and deletes lock the RecordIds they change
+     * exclusively while holding only IX locks on the page and table. Each
+     * HeapPage then tracks which transaction changed which slots, so commit
+     * and abort apply to those slots only. Reading a page with
+     * {@link #getPage} still locks the whole page.
+     */
+    public void setRecordLocking(boolean enabled) {
+        recordLocking = enabled;
+    }
+
+    /** @return true if inserts and deletes lock single records */
+    public boolean isRecordLocking() {
+        return recordLocking;
+    }
+
+    /**
+     * Turns multi-version concurrency control on or off. It is off by
+     * default, and should only be changed while no transaction runs.
+     * <p>
+     * When it is on, HeapFile scans read pages through
+     * {@link #getSnapshotPage} without taking locks, and see the snapshot of
+     * their transaction: the changes of the transactions that committed
+     * before it was taken, and their own. Writers still lock what they
+     * change. Each committing writer stamps its id on the slots it filled
+     * and emptied, and emptied slots keep the deleted tuple until every
+     * running snapshot sees the deletion, so long scans neither block nor
+     * are blocked by writers. A writer that deletes a tuple another
+     * transaction deleted after the writer's snapshot was taken is aborted.
+     */
+    public void setMultiVersion(boolean enabled) {
+        multiVersion = enabled;
+    }
+
+    /** @return true if scans read snapshots */
+    public boolean isMultiVersion() {
+        return multiVersion;
+    }
+
+    /**
+     * Returns the snapshot of tid, taking it now if tid has none yet. A
+     * transaction gets its snapshot on its first snapshot read unless it
+     * calls this when it starts. The snapshot is released when the
+     * transaction completes.
+     */
+    public Snapshot getSnapshot(TransactionId tid) {
+        return snapshots.getSnapshot(tid);
+    }
+
+    /** @return the number of pages written to disk */
+    public long getPageWriteCount() {
+        return writer.getPagesWritten();
+    }
+
+    /**
+     * @return the number of write calls used to write those pages; adjacent
+     *         pages written together share one call
+     */
+    public long getWriteCallCount() {
+        return writer.getWriteCalls();
     }
     
     public static int getPageSize() {
@@ -80,16 +295,408 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, reading it
+     * through the given scan ring if it is not resident.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan requesting the page, or null to read
+     *             the page into the shared part of the pool
+     * @see #getPage(TransactionId, PageId, Permissions)
+     * @see ScanRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
+        if (tid != null) {
+            if (recordLocking) {
+                lockManager.acquire(tid, LockManager.tableResource(pid.getTableId()),
+                        perm == Permissions.READ_WRITE ? LockMode.IX : LockMode.IS);
+            }
+            lockManager.acquire(tid, pid, perm);
+        }
+        return fetchPage(pid, ring);
+    }
+
+    /**
+     * Retrieve a page whose records the caller locks one by one with
+     * {@link #lockRecord}, taking only intention locks (IS for READ_ONLY,
+     * IX for READ_WRITE) on the page and its table. Used by record-level
+     * locking.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the permissions the caller needs on some records of the page
+     */
+    public Page getPageForRecords(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        LockMode intention = perm == Permissions.READ_WRITE ? LockMode.IX : LockMode.IS;
+        lockManager.acquire(tid, LockManager.tableResource(pid.getTableId()), intention);
+        lockManager.acquire(tid, pid, intention);
+        return fetchPage(pid, null);
+    }
+
+    /**
+     * Retrieve the specified page as of the snapshot of tid, without taking
+     * any lock. Unless tid is null, the result is a private copy that must
+     * not be modified, and later writes to the cached page do not show
+     * through it.
+     *
+     * @param tid the ID of the transaction reading the page, or null to read
+     *            the cached page as it is
+     * @param pid the ID of the requested page
+     * @param ring the ring of the scan requesting the page, or null
+     * @see #setMultiVersion
+     */
+    public Page getSnapshotPage(TransactionId tid, PageId pid, ScanRing ring) throws DbException {
+        Page page = fetchPage(pid, ring);
+        if (tid == null || !(page instanceof HeapPage)) {
+            return page;
+        }
+        return ((HeapPage) page).snapshotView(snapshots.getSnapshot(tid));
+    }
+
+    /**
+     * Lock a single record: shared for READ_ONLY, exclusive for READ_WRITE,
+     * together with the matching intention locks on its page and table.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the record to lock
+     * @param perm the requested permissions on the record
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        boolean write = perm == Permissions.READ_WRITE;
+        PageId pid = rid.getPageId();
+        LockMode intention = write ? LockMode.IX : LockMode.IS;
+        lockManager.acquire(tid, LockManager.tableResource(pid.getTableId()), intention);
+        lockManager.acquire(tid, pid, intention);
+        lockManager.acquire(tid, rid, write ? LockMode.X : LockMode.S);
+    }
+
+    /**
+     * Lock a record exclusively if that is possible without waiting; the
+     * caller must already hold IX locks on its page and table.
+     *
+     * @return true if the lock was granted
+     */
+    boolean tryLockRecord(TransactionId tid, RecordId rid) {
+        return lockManager.tryAcquire(tid, rid, LockMode.X);
+    }
+
+    /** Release a record lock taken by {@link #tryLockRecord} that was not used. */
+    void releaseRecord(TransactionId tid, RecordId rid) {
+        lockManager.release(tid, rid);
+    }
+
+    /** Return true if the specified transaction has a lock on the specified record */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        return lockManager.holdsLock(tid, rid);
+    }
+
+    /** Look up pid, reading it from disk if it is not resident. */
+    private Page fetchPage(PageId pid, ScanRing ring) throws DbException {
+        Page page = bufferPoolMap.get(pid);
+        if (page != null) {
+            hits.increment();
+            touch(pid, ring);
+            prefetcher.accessed(pid, ring, false);
+            return page;
+        }
+
+        FutureTask<Page> load = new FutureTask<>(() -> loadPage(pid, ring));
+        FutureTask<Page> inFlight = loading.putIfAbsent(pid, load);
+        if (inFlight != null) {
+            // someone else is already reading the page; share their read
+            hits.increment();
+            // waiting for a read ahead means the window is too short
+            prefetcher.accessed(pid, ring, inFlight instanceof PrefetchTask);
+            try {
+                page = awaitLoad(inFlight);
+            } catch (DbException | RuntimeException e) {
+                if (inFlight instanceof PrefetchTask) {
+                    // a read ahead that failed, e.g. for lack of a clean
+                    // frame, is no reason to fail this request
+                    return fetchPage(pid, ring);
+                }
+                throw e;
+            }
+            touch(pid, ring);
+            return page;
+        }
+        // the previous loader may have finished between our two lookups
+        page = bufferPoolMap.get(pid);
+        if (page != null) {
+            loading.remove(pid, load);
+            hits.increment();
+            touch(pid, ring);
+            prefetcher.accessed(pid, ring, false);
+            return page;
+        }
+        misses.increment();
+        // issue read ahead before blocking on our own read
+        prefetcher.accessed(pid, ring, true);
+        load.run();
+        return awaitLoad(load);
+    }
+
+    /** A background read started by the prefetcher. */
+    private static final class PrefetchTask extends FutureTask<Page> {
+        PrefetchTask(Callable<Page> load) {
+            super(load);
+        }
+    }
+
+    /**
+     * Read pid into the pool in the background unless it is resident or
+     * already being read. Runs on a prefetcher thread.
+     *
+     * @param ring the ring of the scan the read is for, may be null
+     * @param stream the prefetcher stream the read is for
+     */
+    void prefetch(PageId pid, ScanRing ring, Prefetcher.Stream stream) {
+        if (ring != null && ring.isReleased()) {
+            // the scan is over
+            return;
+        }
+        if (bufferPoolMap.containsKey(pid) || loading.containsKey(pid)) {
+            return;
+        }
+        PrefetchTask load = new PrefetchTask(() -> loadPage(pid, ring));
+        if (loading.putIfAbsent(pid, load) != null) {
+            return;
+        }
         if (bufferPoolMap.containsKey(pid)) {
-            return bufferPoolMap.get(pid);
-        } else if (bufferPoolMap.size() >= numPages) {
-            throw new DbException("Buffer Pool Full");
+            loading.remove(pid, load);
+            return;
+        }
+        prefetcher.loading(pid, stream);
+        load.run();
+        try {
+            load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            prefetcher.failed(pid);
+        }
+    }
+
+    private Object latchFor(PageId pid) {
+        return latches[(pid.hashCode() & 0x7fffffff) % LATCH_STRIPES];
+    }
+
+    /**
+     * Read a missing page into a newly reserved frame. Runs at most once at a
+     * time per PageId, inside the FutureTask registered in loading.
+     */
+    private Page loadPage(PageId pid, ScanRing ring) throws DbException {
+        Page page;
+        try {
+            reserveFrame(ring);
+        } catch (DbException | RuntimeException e) {
+            loading.remove(pid);
+            throw e;
+        }
+        try {
+            Page image = writer.pendingImage(pid);
+            // a committed image that has not been written is newer than disk
+            page = image != null ? image.getBeforeImage()
+                    : Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            if (page == null) {
+                throw new DbException("could not read page " + pid);
+            }
+            if (multiVersion && page instanceof HeapPage) {
+                attachVersions((HeapPage) page);
+            }
+        } catch (DbException | RuntimeException e) {
+            lockFrames();
+            try {
+                usedFrames--;
+                reservedFrames--;
+                framesChanged.signalAll();
+            } finally {
+                frameLock.unlock();
+            }
+            loading.remove(pid);
+            throw e;
+        }
+
+        Page cached;
+        synchronized (latchFor(pid)) {
+            cached = bufferPoolMap.putIfAbsent(pid, page);
+            loading.remove(pid);
+        }
+        lockFrames();
+        try {
+            reservedFrames--;
+            framesChanged.signalAll();
+            if (cached != null) {
+                // a modified copy was cached while we were reading
+                usedFrames--;
+                return cached;
+            }
+            // the page may have been discarded in the meantime
+            if (bufferPoolMap.get(pid) == page) {
+                if (ring == null || ring.isReleased()) {
+                    policy.recordAccess(pid);
+                } else {
+                    ring.add(pid);
+                    ringOwner.put(pid, ring);
+                }
+            }
+        } finally {
+            frameLock.unlock();
+        }
+        return page;
+    }
+
+    private static Page awaitLoad(FutureTask<Page> load) throws DbException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for a page read");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new DbException("page read failed: " + cause);
+        }
+    }
+
+    /** Make room for one more page, evicting if the pool is full. */
+    private void reserveFrame(ScanRing ring) throws DbException {
+        lockFrames();
+        try {
+            if (ring != null && ring.isFull()) {
+                recycleRingFrame(ring);
+            }
+            while (usedFrames >= numPages) {
+                evictPage();
+            }
+            usedFrames++;
+            reservedFrames++;
+        } finally {
+            frameLock.unlock();
+        }
+    }
+
+    /** Tell the replacement policy about a hit on a resident page. */
+    private void touch(PageId pid, ScanRing ring) {
+        ScanRing owner = ringOwner.get(pid);
+        if (owner != null) {
+            if (owner != ring) {
+                // someone outside the scan wants the page; adopt it
+                lockFrames();
+                try {
+                    if (ringOwner.remove(pid, owner)) {
+                        owner.remove(pid);
+                        policy.recordAccess(pid);
+                    }
+                } finally {
+                    frameLock.unlock();
+                }
+            }
+            return;
+        }
+        if (frameLock.tryLock()) {
+            try {
+                drainPendingAccesses();
+                policy.recordAccess(pid);
+            } finally {
+                frameLock.unlock();
+            }
+        } else if (pendingCount.incrementAndGet() <= MAX_PENDING_ACCESSES) {
+            pendingAccesses.add(pid);
         } else {
-            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            bufferPoolMap.put(pid, page);
-            return page;
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    private void lockFrames() {
+        frameLock.lock();
+        drainPendingAccesses();
+    }
+
+    /** Replay queued hits; requires frameLock. */
+    private void drainPendingAccesses() {
+        PageId pid;
+        while ((pid = pendingAccesses.poll()) != null) {
+            pendingCount.decrementAndGet();
+            // skip pages that left the pool or belong to a ring meanwhile
+            if (bufferPoolMap.containsKey(pid) && !ringOwner.containsKey(pid)) {
+                policy.recordAccess(pid);
+            }
+        }
+    }
+
+    /**
+     * Create a ring of frames for a sequential scan over a table with the
+     * specified number of pages.
+     *
+     * @param tablePages number of pages in the scanned table
+     * @return a new ring, or null if the table fits in the pool and should
+     *         be cached normally
+     */
+    public ScanRing newScanRing(int tablePages) {
+        if (tablePages <= numPages) {
+            return null;
+        }
+        return new ScanRing(Math.max(1, Math.min(MAX_RING_PAGES, numPages / 4)));
+    }
+
+    /**
+     * Return the frames of a finished scan to the pool. Clean pages still
+     * owned by the ring are dropped, since the scan read them only once.
+     *
+     * @param ring the ring to release, may be null
+     */
+    public void releaseScanRing(ScanRing ring) {
+        if (ring == null) {
+            return;
+        }
+        lockFrames();
+        try {
+            ring.setReleased();
+            while (!ring.isEmpty()) {
+                recycleRingFrame(ring);
+            }
+        } finally {
+            frameLock.unlock();
+        }
+        prefetcher.ringReleased(ring);
+    }
+
+    /**
+     * Free the frame of the oldest page read through the given ring;
+     * requires frameLock.
+     */
+    private void recycleRingFrame(ScanRing ring) {
+        PageId oldest = ring.pollOldest();
+        if (oldest == null || !ringOwner.remove(oldest, ring)) {
+            return;
+        }
+        Page page = bufferPoolMap.get(oldest);
+        if (page != null && (page.isDirty() != null || writer.isPending(oldest))) {
+            // cannot drop a dirty page; let the policy deal with it
+            policy.recordAccess(oldest);
+            return;
+        }
+        synchronized (latchFor(oldest)) {
+            if (bufferPoolMap.remove(oldest) != null) {
+                usedFrames--;
+                prefetcher.evicted(oldest);
+            }
         }
     }
 
@@ -105,6 +712,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -115,18 +723,25 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * A commit forces update records for the pages the transaction dirtied
+     * and a commit record to the log, and queues the pages' images with the
+     * background writer instead of writing them. An abort puts the last
+     * committed image of each of those pages back into the pool, and rolls
+     * back on disk any of them that were written before.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -134,6 +749,192 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        // a transaction can only have dirtied pages it holds locks on; a
+        // page it changed may be clean again if a steal wrote it, so every
+        // page it locks exclusively is taken
+        List<Page> dirtied = new ArrayList<>();
+        List<HeapPage> slotsChanged = new ArrayList<>();
+        for (PageId pid : lockManager.lockedPages(tid)) {
+            Page page = bufferPoolMap.get(pid);
+            if (page instanceof HeapPage && ((HeapPage) page).hasSlotChanges(tid)) {
+                slotsChanged.add((HeapPage) page);
+            } else if (page != null
+                    && (tid.equals(page.isDirty()) || lockManager.holdsExclusive(tid, pid))) {
+                dirtied.add(page);
+            }
+        }
+        try {
+            if (commit) {
+                commitPages(tid, dirtied, slotsChanged);
+            } else {
+                abortPages(dirtied, slotsChanged, tid);
+                rollbackLogged(tid);
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+            if (snapshots.release(tid)) {
+                // history the released snapshot held on to may be unneeded now
+                for (Map.Entry<PageId, SlotVersions> e : versions.entrySet()) {
+                    settleVersions(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives page the history of its PageId, starting one if there is none.
+     */
+    private SlotVersions attachVersions(HeapPage page) {
+        SlotVersions v = page.getVersions();
+        if (v == null) {
+            v = versions.get(page.getId());
+            if (v == null) {
+                v = new SlotVersions(page.numSlots, snapshots);
+            }
+            page.setVersions(v);
+        }
+        return v;
+    }
+
+    /**
+     * Drops the entries of a page's history that every snapshot sees, and
+     * the history itself once it is empty.
+     */
+    private void settleVersions(PageId pid, SlotVersions v) {
+        synchronized (v) {
+            if (v.settle()) {
+                versions.remove(pid, v);
+            }
+        }
+    }
+
+    /**
+     * Logs the pages a committing transaction dirtied and queues their new
+     * committed images. Pages it changed slot by slot are logged with images
+     * that leave out the changes of other running transactions. Pages that
+     * were stolen are already logged and on disk, and only get their new
+     * committed images in memory.
+     */
+    private void commitPages(TransactionId tid, List<Page> dirtied, List<HeapPage> slotsChanged) {
+        LogFile log = Database.getLogFile();
+        List<Page> unwritten = new ArrayList<>();
+        for (Page page : dirtied) {
+            if (tid.equals(page.isDirty())) {
+                unwritten.add(page);
+            }
+        }
+        // pages stolen before the commit are logged but no longer dirty,
+        // and recovery undoes them unless the commit record follows
+        if (unwritten.isEmpty() && slotsChanged.isEmpty() && !log.isLogged(tid)) {
+            // nothing was changed
+            return;
+        }
+        // pages whose history the commit stamps
+        List<HeapPage> stamped = new ArrayList<>();
+        if (multiVersion) {
+            for (Page page : dirtied) {
+                if (page instanceof HeapPage) {
+                    stamped.add((HeapPage) page);
+                }
+            }
+            stamped.addAll(slotsChanged);
+            for (HeapPage page : stamped) {
+                attachVersions(page);
+            }
+            snapshots.beginCommit(tid);
+        }
+        List<Page> committed = new ArrayList<>(slotsChanged.size());
+        try {
+            for (Page page : unwritten) {
+                page.setLSN(log.logWrite(tid, page.getBeforeImage(), page));
+            }
+            for (HeapPage page : slotsChanged) {
+                HeapPage[] images = page.commitSlots(tid);
+                registerVersions(page);
+                long lsn = log.logWrite(tid, images[0], images[1]);
+                images[1].setLSN(lsn);
+                page.setLSN(lsn);
+                committed.add(images[1]);
+            }
+            // forces the updates with the commit record, in one group
+            // commit with concurrent committers
+            log.logCommit(tid);
+        } catch (IOException e) {
+            throw new RuntimeException("could not log commit of " + tid, e);
+        }
+        for (Page page : dirtied) {
+            if (page instanceof HeapPage) {
+                ((HeapPage) page).commitImage(tid);
+            } else {
+                page.setBeforeImage();
+            }
+            registerVersions(page);
+        }
+        for (Page page : unwritten) {
+            // queue before marking clean, so the page is never evictable
+            // while its changes are only in memory
+            writer.enqueue(page.getBeforeImage());
+            page.markDirty(false, null);
+        }
+        for (int i = 0; i < slotsChanged.size(); i++) {
+            writer.enqueue(committed.get(i));
+            slotsChanged.get(i).releaseSlots(tid);
+        }
+        if (multiVersion) {
+            snapshots.commit(tid);
+            for (HeapPage page : stamped) {
+                settleVersions(page.getId(), page.getVersions());
+            }
+        }
+    }
+
+    /**
+     * Keeps the history of a page the commit stamped in the pool, while the
+     * page is still dirty and cannot be evicted.
+     */
+    private void registerVersions(Page page) {
+        if (multiVersion && page instanceof HeapPage) {
+            SlotVersions v = ((HeapPage) page).getVersions();
+            if (v != null) {
+                versions.put(page.getId(), v);
+            }
+        }
+    }
+
+    /**
+     * Puts back the committed images of the pages an aborting transaction
+     * dirtied, and the committed contents of the slots it changed.
+     */
+    private void abortPages(List<Page> dirtied, List<HeapPage> slotsChanged, TransactionId tid) {
+        for (Page page : dirtied) {
+            PageId pid = page.getId();
+            Page restored = page.getBeforeImage();
+            if (page instanceof HeapPage) {
+                ((HeapPage) restored).setVersions(((HeapPage) page).getVersions());
+            }
+            synchronized (latchFor(pid)) {
+                bufferPoolMap.replace(pid, page, restored);
+            }
+        }
+        for (HeapPage page : slotsChanged) {
+            page.abortSlots(tid);
+        }
+    }
+
+    /**
+     * Undoes on disk the pages of an aborting transaction that were written
+     * before it finished, such as by a checkpoint.
+     */
+    private void rollbackLogged(TransactionId tid) {
+        LogFile log = Database.getLogFile();
+        if (!log.isLogged(tid)) {
+            return;
+        }
+        try {
+            log.logAbort(tid);
+        } catch (IOException e) {
+            throw new RuntimeException("could not roll back " + tid, e);
+        }
     }
 
     /**
@@ -155,6 +956,8 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        List<Page> dirtied = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+        cacheDirtyPages(tid, dirtied);
     }
 
     /**
@@ -174,17 +977,71 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple is not stored in a table");
+        }
+        int tableId = t.getRecordId().getPageId().getTableId();
+        List<Page> dirtied = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
+        cacheDirtyPages(tid, dirtied);
+    }
+
+    /**
+     * Marks the given pages dirty and makes them the cached versions. A page
+     * that left the pool while it was being modified is put back.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
+            // pages changed through record locks track their writers per slot
+            if (!(page instanceof HeapPage && ((HeapPage) page).hasSlotChanges(tid))) {
+                page.markDirty(true, tid);
+            }
+            PageId pid = page.getId();
+            if (bufferPoolMap.get(pid) == page) {
+                continue;
+            }
+            lockFrames();
+            try {
+                Page old;
+                while (true) {
+                    synchronized (latchFor(pid)) {
+                        old = bufferPoolMap.get(pid);
+                        if (old != null || usedFrames < numPages) {
+                            bufferPoolMap.put(pid, page);
+                            break;
+                        }
+                    }
+                    evictPage();
+                }
+                if (old == null) {
+                    usedFrames++;
+                }
+                // dirty pages are never recycled by a ring
+                ScanRing owner = ringOwner.remove(pid);
+                if (owner != null) {
+                    owner.remove(pid);
+                }
+                policy.recordAccess(pid);
+            } finally {
+                frameLock.unlock();
+            }
+        }
     }
 
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
+     * Retries the committed images the background writer failed to write,
+     * and throws if they still cannot be written.
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        // committed images first, so that they never overwrite newer pages
+        writer.flushAll();
+        for (PageId pid : bufferPoolMap.keySet()) {
+            flushPage(pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -195,9 +1052,30 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        Page removed;
+        synchronized (latchFor(pid)) {
+            removed = bufferPoolMap.remove(pid);
+        }
+        if (removed == null) {
+            return;
+        }
+        prefetcher.evicted(pid);
+        lockFrames();
+        try {
+            usedFrames--;
+            framesChanged.signalAll();
+            ScanRing owner = ringOwner.remove(pid);
+            if (owner != null) {
+                owner.remove(pid);
+            } else {
+                policy.discard(pid);
+            }
+        } finally {
+            frameLock.unlock();
+        }
     }
 
     /**
@@ -207,6 +1085,21 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Page page = bufferPoolMap.get(pid);
+        TransactionId dirtier = page == null ? null : page.isDirty();
+        if (dirtier == null || (page instanceof HeapPage && ((HeapPage) page).hasSlotChanges())) {
+            // slot changes are never stolen: the page mixes the changes of
+            // several running transactions, which one update record could
+            // not undo apart, so only its committed image is written
+            writer.flush(Collections.singletonList(pid));
+            return;
+        }
+        // write ahead: the update record reaches the log before the page
+        LogFile log = Database.getLogFile();
+        page.setLSN(log.logWrite(dirtier, page.getBeforeImage(), page));
+        log.force(page.getLSN());
+        writer.writeThrough(page);
+        page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -214,15 +1107,99 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        for (Page page : bufferPoolMap.values()) {
+            if (tid.equals(page.isDirty())) {
+                flushPage(page.getId());
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Prefers pages that are clean on disk; a page whose committed image is
+     * still queued is only chosen when nothing else can go, and its image is
+     * then written with frameLock released, after which this returns without
+     * evicting. Requires frameLock. If every candidate is still being read,
+     * waits until one of those reads completes and returns without evicting.
+     * Either way the caller re-checks the frame count.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
+        while (true) {
+            // NO STEAL: pages dirtied by a running transaction stay in the pool
+            PageId victim = policy.chooseVictim(this::isClean);
+            if (victim == null) {
+                // frames left behind by scans that were never closed
+                for (PageId pid : ringOwner.keySet()) {
+                    if (isClean(pid)) {
+                        victim = pid;
+                        break;
+                    }
+                }
+            }
+            if (victim == null) {
+                IOException failure = writer.failure();
+                if (failure != null) {
+                    // only the writer could free a frame, and it is failing
+                    throw new DbException("could not write committed pages: " + failure.getMessage());
+                }
+                // the background writer has fallen behind
+                writer.wakeup();
+                victim = policy.chooseVictim(this::isEvictable);
+            }
+            if (victim == null && reservedFrames > 0) {
+                try {
+                    framesChanged.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for a free frame");
+                }
+                return;
+            }
+            if (victim == null) {
+                throw new DbException("Buffer Pool Full: all pages are dirty");
+            }
+            if (writer.isPending(victim)) {
+                // a victim is never dirty, but may have a queued image;
+                // loads of other pages need not wait for its write
+                frameLock.unlock();
+                try {
+                    writer.flush(Collections.singletonList(victim));
+                } catch (IOException e) {
+                    throw new DbException("could not flush page " + victim + ": " + e.getMessage());
+                } finally {
+                    lockFrames();
+                }
+                return;
+            }
+            boolean removed;
+            synchronized (latchFor(victim)) {
+                removed = bufferPoolMap.remove(victim) != null;
+            }
+            ScanRing owner = ringOwner.remove(victim);
+            if (owner != null) {
+                owner.remove(victim);
+            } else {
+                policy.remove(victim);
+            }
+            if (removed) {
+                usedFrames--;
+                prefetcher.evicted(victim);
+                return;
+            }
+            // the victim was discarded concurrently; it freed nothing
+        }
+    }
+
+    private boolean isEvictable(PageId pid) {
+        Page page = bufferPoolMap.get(pid);
+        return page == null || page.isDirty() == null;
+    }
+
+    /** @return true if pid can be evicted without writing it */
+    private boolean isClean(PageId pid) {
+        return isEvictable(pid) && !writer.isPending(pid);
     }
 
 }
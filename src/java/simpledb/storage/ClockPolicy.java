@@ -0,0 +1,91 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Every tracked page owns a slot on a
+ * circular array with a reference bit that is set on each access; the hand
+ * sweeps the array, clearing reference bits, and evicts the first evictable
+ * page whose bit is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private PageId[] slots;
+    private boolean[] referenced;
+    private final Map<PageId, Integer> slotOf;
+    private final Deque<Integer> freeSlots;
+    private int hand;
+
+    /**
+     * @param numPages the number of pages the policy should expect to track
+     */
+    public ClockPolicy(int numPages) {
+        int capacity = Math.max(numPages, 1);
+        this.slots = new PageId[capacity];
+        this.referenced = new boolean[capacity];
+        this.slotOf = new HashMap<>();
+        this.freeSlots = new ArrayDeque<>();
+        for (int i = 0; i < capacity; i++) {
+            freeSlots.addLast(i);
+        }
+        this.hand = 0;
+    }
+
+    public void recordAccess(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot == null) {
+            if (freeSlots.isEmpty()) {
+                grow();
+            }
+            slot = freeSlots.removeFirst();
+            slots[slot] = pid;
+            slotOf.put(pid, slot);
+        }
+        referenced[slot] = true;
+    }
+
+    public void remove(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            slots[slot] = null;
+            referenced[slot] = false;
+            freeSlots.addLast(slot);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * slots.length; i++) {
+            int slot = hand;
+            hand = (hand + 1) % slots.length;
+            PageId pid = slots[slot];
+            if (pid == null || !evictable.test(pid)) {
+                continue;
+            }
+            if (referenced[slot]) {
+                referenced[slot] = false;
+            } else {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /** The pool may briefly track more pages than it was sized for. */
+    private void grow() {
+        int oldLength = slots.length;
+        PageId[] newSlots = new PageId[oldLength * 2];
+        boolean[] newReferenced = new boolean[oldLength * 2];
+        System.arraycopy(slots, 0, newSlots, 0, oldLength);
+        System.arraycopy(referenced, 0, newReferenced, 0, oldLength);
+        slots = newSlots;
+        referenced = newReferenced;
+        for (int i = oldLength; i < newSlots.length; i++) {
+            freeSlots.addLast(i);
+        }
+    }
+}
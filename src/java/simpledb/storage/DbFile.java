@@ -3,6 +3,8 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -33,6 +35,32 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk. Files that can write adjacent
+     * pages with a single call should override this; the default writes one
+     * page at a time.
+     *
+     * @param pages the pages to write, in any order
+     * @return the number of write calls issued
+     * @throws IOException if a write fails
+     */
+    default int writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+        return pages.size();
+    }
+
+    /**
+     * Forces the pages written so far to the storage device, so that they
+     * survive a crash of the operating system. Files whose writes are not
+     * cached by the operating system need not override this.
+     *
+     * @throws IOException if the force fails
+     */
+    default void force() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +101,61 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that reads
+     * pages through the given scan ring. Files that do not support rings
+     * ignore it.
+     *
+     * @param ring the ring of frames the scan should use, may be null
+     * @return an iterator over all the tuples stored in this DbFile.
+     * @see BufferPool#newScanRing
+     */
+    default DbFileIterator iterator(TransactionId tid, ScanRing ring) {
+        return iterator(tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * all of the given predicates, holding only the projected fields. The
+     * returned tuples have the TupleDesc {@code getTupleDesc().project(projection)}
+     * and keep the RecordId of the stored tuple they came from.
+     * <p>
+     * Files that can evaluate predicates on their pages before creating
+     * tuples should override this; the default filters and projects the
+     * tuples of {@link #iterator(TransactionId, ScanRing)}.
+     *
+     * @param ring the ring of frames the scan should use, may be null
+     * @param predicates predicates on the fields of this file, all of which a
+     *        returned tuple satisfies; may be empty
+     * @param projection indexes of the fields to return, in order, or null
+     *        for all fields
+     * @throws IllegalArgumentException if a predicate or the projection does
+     *         not match the fields of this file
+     */
+    default DbFileIterator iterator(TransactionId tid, ScanRing ring,
+                                    List<Predicate> predicates, int[] projection) {
+        if (predicates.isEmpty() && projection == null) {
+            return iterator(tid, ring);
+        }
+        CompiledPredicate filter = CompiledPredicate.compile(predicates, getTupleDesc());
+        if (projection == null) {
+            projection = allFields(getTupleDesc());
+        }
+        return new FilteredDbFileIterator(iterator(tid, ring), filter, projection,
+                getTupleDesc().project(projection));
+    }
+
+    /**
+     * @return the indexes of all fields of td, in order
+     */
+    static int[] allFields(TupleDesc td) {
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = i;
+        }
+        return fields;
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -30,6 +30,24 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the following tuples to batch until it is full or the iterator
+     * is exhausted, advancing the iterator past them. Implementations that
+     * can fill the column vectors without creating tuples should override
+     * this; the default calls {@link #next()} once per row.
+     *
+     * @return the number of tuples appended, 0 if there were none left
+     */
+    default int nextBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        int added = 0;
+        while (!batch.isFull() && hasNext()) {
+            batch.append(next());
+            added++;
+        }
+        return added;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -0,0 +1,67 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.CompiledPredicate;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Filters and projects the tuples of another DbFileIterator. Used by
+ * {@link DbFile#iterator(simpledb.transaction.TransactionId, ScanRing, java.util.List, int[])}
+ * for files that cannot evaluate predicates on their pages.
+ */
+class FilteredDbFileIterator implements DbFileIterator {
+
+    private final DbFileIterator child;
+    private final CompiledPredicate filter;
+    private final int[] projection;
+    private final TupleDesc projected;
+    // the next tuple that passed the filter, already projected
+    private Tuple next;
+
+    FilteredDbFileIterator(DbFileIterator child, CompiledPredicate filter, int[] projection, TupleDesc projected) {
+        this.child = child;
+        this.filter = filter;
+        this.projection = projection;
+        this.projected = projected;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (next == null && child.hasNext()) {
+            Tuple t = child.next();
+            if (filter.test(t)) {
+                next = new Tuple(projected);
+                for (int j = 0; j < projection.length; j++) {
+                    next.setField(j, t.getField(projection[j]));
+                }
+                next.setRecordId(t.getRecordId());
+            }
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        next = null;
+    }
+
+    public void close() {
+        child.close();
+        next = null;
+    }
+}
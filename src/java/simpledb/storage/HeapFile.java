@@ -4,10 +4,17 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -23,44 +30,96 @@ import java.util.*;
 public class HeapFile implements DbFile {
     private File f;
     private TupleDesc td;
+    // opened on first use and kept for the lifetime of the file; guarded by this
+    private FileChannel channel;
+    // serializes writes, which move the channel's position
+    private final Object writeLock = new Object();
+    // page of the last insert under record-level locking
+    private volatile int insertHint;
 
     private class HeapFileIterator implements DbFileIterator {
         private TransactionId tid;
+        private ScanRing ring;
+        // pages [firstPage, endPage) are read; endPage is -1 to read up to
+        // the end of the file as it grows
+        private final int firstPage;
+        private final int endPage;
         private int currentPageNo;
-        private Iterator<Tuple> tupleIterator;
+        // the page being read and the next used slot on it; page is null
+        // when the iterator is closed
+        private HeapPage page;
+        private int slot;
 
-        public HeapFileIterator(TransactionId tid) {
+        public HeapFileIterator(TransactionId tid, ScanRing ring) {
+            this(tid, ring, 0, -1);
+        }
+
+        public HeapFileIterator(TransactionId tid, ScanRing ring, int firstPage, int endPage) {
             this.tid = tid;
+            this.ring = ring;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
         }
 
-        @Override
-        public void open() throws DbException, TransactionAbortedException {
-            currentPageNo = 0;
+        private int endPage() {
+            return endPage < 0 ? numPages() : endPage;
+        }
+
+        private void readPage(int pageNo) throws DbException, TransactionAbortedException {
+            currentPageNo = pageNo;
             HeapPageId pid = new HeapPageId(getId(), currentPageNo);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            tupleIterator = page.iterator();
+            BufferPool pool = Database.getBufferPool();
+            page = (HeapPage) (pool.isMultiVersion() ? pool.getSnapshotPage(tid, pid, ring)
+                    : pool.getPage(tid, pid, Permissions.READ_ONLY, ring));
+            slot = page.nextUsedSlot(0);
         }
 
         @Override
-        public boolean hasNext() throws DbException, TransactionAbortedException {
-            if (tupleIterator == null) {
+        public void open() throws DbException, TransactionAbortedException {
+            if (firstPage < endPage()) {
+                readPage(firstPage);
+            } else {
+                page = null;
+            }
+        }
+
+        /**
+         * Moves to the next page with a used slot if the current page is done.
+         *
+         * @return false if there are no more tuples
+         */
+        private boolean advance() throws DbException, TransactionAbortedException {
+            if (page == null) {
                 return false;
             }
-            if (!tupleIterator.hasNext() && currentPageNo < numPages() - 1) {
-                currentPageNo++;
-                HeapPageId pid = new HeapPageId(getId(), currentPageNo);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                tupleIterator = page.iterator();
+            while (slot >= page.numSlots && currentPageNo < endPage() - 1) {
+                readPage(currentPageNo + 1);
             }
-            return tupleIterator.hasNext();
+            return slot < page.numSlots;
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return advance();
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if (tupleIterator == null || !tupleIterator.hasNext()) {
+            if (!advance()) {
                 throw new NoSuchElementException();
             }
-            return tupleIterator.next();
+            Tuple t = page.getTuple(slot);
+            slot = page.nextUsedSlot(slot + 1);
+            return t;
+        }
+
+        @Override
+        public int nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            int before = batch.rowCount();
+            while (!batch.isFull() && advance()) {
+                slot = page.fillBatch(batch, slot);
+            }
+            return batch.rowCount() - before;
         }
 
         @Override
@@ -71,7 +130,83 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
-            tupleIterator = null;
+            page = null;
+        }
+    }
+
+    /**
+     * Scans the file a batch at a time, evaluates the predicates on the
+     * batch's column vectors and only materializes the rows that pass, with
+     * only the projected fields. Fields that neither the predicates nor the
+     * projection need are not copied out of the pages at all.
+     */
+    private class FilteredHeapFileIterator extends HeapFileIterator {
+        private final CompiledPredicate filter;
+        private final int[] projection;
+        private final TupleDesc projected;
+        private final TupleBatch batch;
+        // next selected row of batch to return
+        private int nextRow;
+
+        public FilteredHeapFileIterator(TransactionId tid, ScanRing ring, int firstPage, int endPage,
+                                        CompiledPredicate filter, List<Predicate> predicates, int[] projection) {
+            super(tid, ring, firstPage, endPage);
+            this.filter = filter;
+            this.projection = projection;
+            this.projected = td.project(projection);
+            boolean[] loaded = new boolean[td.numFields()];
+            for (Predicate p : predicates) {
+                loaded[p.getField()] = true;
+            }
+            for (int field : projection) {
+                loaded[field] = true;
+            }
+            this.batch = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY, loaded);
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            batch.clear();
+            nextRow = 0;
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (nextRow >= batch.size()) {
+                batch.clear();
+                nextRow = 0;
+                if (super.nextBatch(batch) == 0) {
+                    return false;
+                }
+                filter.filter(batch);
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.getTuple(nextRow++, projection, projected);
+        }
+
+        @Override
+        public int nextBatch(TupleBatch out) throws DbException, TransactionAbortedException {
+            int added = 0;
+            while (!out.isFull() && hasNext()) {
+                out.append(next());
+                added++;
+            }
+            return added;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            batch.clear();
+            nextRow = 0;
         }
     }
 
@@ -123,6 +258,50 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Returns the long-lived channel of this file, opening it if necessary.
+     * All I/O uses positional reads and writes, so callers never share a file
+     * pointer. Files that cannot be opened for writing are opened read-only.
+     */
+    protected synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            try {
+                channel = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (AccessDeniedException e) {
+                channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Fills buf from the file starting at the given offset.
+     *
+     * @return false if the end of the file was reached before buf was full
+     */
+    private boolean readFully(ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel ch = getChannel();
+                while (buf.hasRemaining()) {
+                    // read() may return fewer bytes than requested
+                    if (ch.read(buf, offset + buf.position() - start) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (ClosedChannelException e) {
+                // an interrupted reader closes the shared channel for
+                // everyone; reopen it and retry once
+                if (attempt > 0) {
+                    throw e;
+                }
+                buf.position(start);
+            }
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         if (!(pid instanceof HeapPageId)) {
@@ -131,19 +310,16 @@ public class HeapFile implements DbFile {
 
         int pageSize = BufferPool.getPageSize();
         byte[] data = new byte[pageSize];
+        // calculate the location of the page
+        long offset = (long) pid.getPageNumber() * pageSize;
 
-        try (RandomAccessFile newFile = new RandomAccessFile(f, "r")) {
-            // calculate the location of the page
-            int offset = ((HeapPageId) pid).getPageNumber() * pageSize;
-
-            if ((offset + pageSize) > newFile.length()) {
-                throw new IllegalArgumentException("The page is too long");
+        try {
+            if (!readFully(ByteBuffer.wrap(data), offset)) {
+                throw new IllegalArgumentException("page " + pid.getPageNumber() + " does not exist in this file");
             }
-            // read the page data from the file into the byte array
-            newFile.seek(offset);
-            newFile.read(data, 0, pageSize);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
 
         try {
@@ -161,6 +337,54 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Writes the given pages, sorted by page number, with one gathering write
+     * per run of consecutive pages.
+     */
+    public int writePages(List<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int pageSize = BufferPool.getPageSize();
+        int writes = 0;
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start + 1;
+            while (end < sorted.size() && sorted.get(end).getId().getPageNumber()
+                    == sorted.get(end - 1).getId().getPageNumber() + 1) {
+                end++;
+            }
+            ByteBuffer[] run = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++) {
+                run[i - start] = ByteBuffer.wrap(sorted.get(i).getPageData());
+            }
+            writeFully(run, (long) sorted.get(start).getId().getPageNumber() * pageSize);
+            writes++;
+            start = end;
+        }
+        return writes;
+    }
+
+    /**
+     * Writes all of bufs to the file starting at the given offset.
+     */
+    private void writeFully(ByteBuffer[] bufs, long offset) throws IOException {
+        // gathering writes go to the channel's position; reads are
+        // positional, so only writers have to agree on it
+        synchronized (writeLock) {
+            FileChannel ch = getChannel();
+            ch.position(offset);
+            while (bufs[bufs.length - 1].hasRemaining()) {
+                ch.write(bufs);
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        getChannel().force(true);
     }
 
     /**
@@ -171,25 +395,182 @@ public class HeapFile implements DbFile {
         return (int) Math.ceil((double) f.length() / pageSize);
     }
 
+    /**
+     * Appends an empty page to the file.
+     *
+     * @return the id of the new page
+     */
+    private HeapPageId appendEmptyPage() throws IOException {
+        synchronized (writeLock) {
+            HeapPageId pid = new HeapPageId(getId(), numPages());
+            writeFully(new ByteBuffer[]{ByteBuffer.wrap(HeapPage.createEmptyPageData())},
+                    (long) pid.getPageNumber() * BufferPool.getPageSize());
+            return pid;
+        }
+    }
+
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        BufferPool pool = Database.getBufferPool();
+        if (pool.isRecordLocking()) {
+            return insertRecord(pool, tid, t);
+        }
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            // look for space under a shared lock, and give it up again if
+            // the page is full and was not locked before
+            boolean locked = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() == 0) {
+                if (!locked) {
+                    pool.releasePage(tid, pid);
+                }
+                continue;
+            }
+            page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                return new ArrayList<>(Collections.singletonList(page));
+            }
+        }
+        HeapPage page = (HeapPage) pool.getPage(tid, appendEmptyPage(), Permissions.READ_WRITE);
+        page.insertTuple(t);
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    /**
+     * Inserts t under record-level locking. Starts looking for space on the
+     * page of the previous insert, since appends keep filling the last page.
+     */
+    private List<Page> insertRecord(BufferPool pool, TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int pages = numPages();
+        int hint = insertHint < pages ? insertHint : 0;
+        for (int k = 0; k < pages; k++) {
+            HeapPageId pid = new HeapPageId(getId(), (hint + k) % pages);
+            HeapPage page = insertIntoPage(pool, tid, t, pid);
+            if (page != null) {
+                return new ArrayList<>(Collections.singletonList(page));
+            }
+        }
+        while (true) {
+            HeapPage page = insertIntoPage(pool, tid, t, appendEmptyPage());
+            if (page != null) {
+                return new ArrayList<>(Collections.singletonList(page));
+            }
+        }
+    }
+
+    /**
+     * Inserts t into a free slot of the given page that no other transaction
+     * has locked, holding only an IX lock on the page.
+     *
+     * @return the page, or null if it had no such slot
+     */
+    private HeapPage insertIntoPage(BufferPool pool, TransactionId tid, Tuple t, HeapPageId pid)
+            throws DbException, TransactionAbortedException {
+        boolean locked = pool.holdsLock(tid, pid);
+        HeapPage page = (HeapPage) pool.getPageForRecords(tid, pid, Permissions.READ_WRITE);
+        for (int slot = page.nextFreeSlot(0); slot >= 0; slot = page.nextFreeSlot(slot + 1)) {
+            RecordId rid = new RecordId(pid, slot);
+            // a free slot that is locked was emptied by a running delete
+            // and must stay free until that transaction completes
+            boolean had = pool.holdsLock(tid, rid);
+            if (!pool.tryLockRecord(tid, rid)) {
+                continue;
+            }
+            if (page.insertTuple(t, slot, tid)) {
+                insertHint = pid.getPageNumber();
+                return page;
+            }
+            if (!had) {
+                pool.releaseRecord(tid, rid);
+            }
+        }
+        if (!locked) {
+            pool.releasePage(tid, pid);
+        }
+        return null;
     }
 
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        BufferPool pool = Database.getBufferPool();
+        if (pool.isRecordLocking()) {
+            pool.lockRecord(tid, rid, Permissions.READ_WRITE);
+            HeapPage page = (HeapPage) pool.getPageForRecords(tid, rid.getPageId(), Permissions.READ_WRITE);
+            checkNotDeleted(pool, page, rid);
+            page.deleteTuple(t, tid);
+            return new ArrayList<>(Collections.singletonList(page));
+        }
+        HeapPage page = (HeapPage) pool.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        checkNotDeleted(pool, page, rid);
+        page.deleteTuple(t);
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    /**
+     * A tuple read from a snapshot may have been deleted since by a
+     * transaction that has committed; deleting it again is a write conflict
+     * that aborts the deleting transaction.
+     */
+    private static void checkNotDeleted(BufferPool pool, HeapPage page, RecordId rid)
+            throws TransactionAbortedException {
+        int slot = rid.getTupleNumber();
+        if (pool.isMultiVersion() && slot >= 0 && slot < page.numSlots && !page.isSlotUsed(slot)) {
+            throw new TransactionAbortedException();
+        }
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, ScanRing ring) {
+        return new HeapFileIterator(tid, ring);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, ScanRing ring,
+                                   List<Predicate> predicates, int[] projection) {
+        return iterator(tid, ring, 0, -1, predicates, projection);
+    }
+
+    /**
+     * Returns an iterator over the tuples on a range of pages of this file,
+     * filtered and projected as by
+     * {@link #iterator(TransactionId, ScanRing, List, int[])}. Used by
+     * parallel scans to split a file into independent pieces.
+     *
+     * @param firstPage the first page to read
+     * @param endPage the page after the last page to read, or -1 to read to
+     *        the end of the file
+     */
+    public DbFileIterator iterator(TransactionId tid, ScanRing ring, int firstPage, int endPage,
+                                   List<Predicate> predicates, int[] projection) {
+        if (predicates.isEmpty() && projection == null) {
+            return new HeapFileIterator(tid, ring, firstPage, endPage);
+        }
+        CompiledPredicate filter = CompiledPredicate.compile(predicates, td);
+        if (projection == null) {
+            projection = DbFile.allFields(td);
+        }
+        return new FilteredHeapFileIterator(tid, ring, firstPage, endPage, filter, predicates, projection);
     }
 
 }
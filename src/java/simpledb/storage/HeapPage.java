@@ -4,10 +4,12 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.transaction.Snapshot;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -25,8 +27,34 @@ public class HeapPage implements Page {
     final Tuple[] tuples;
     final int numSlots;
 
+    // the page image this page was created from. Slots are decoded from it
+    // only when first touched and it is never written to; modified slots
+    // live in tuples instead.
+    private final ByteBuffer data;
+    // byte offset of each field within a slot
+    private final int[] fieldOffsets;
+    // true once a tuple was inserted or deleted since the page was created
+    private volatile boolean modified;
+    private volatile TransactionId dirtier;
+    // LSN of the last log record of this page; kept in memory only
+    private volatile long lsn;
+
+    // null while the before image is the original page image
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
+
+    // slots changed by each running transaction that locks records instead
+    // of the whole page; null until the first such change, guarded by this
+    private Map<TransactionId, BitSet> slotWriters;
+    // one of the keys of slotWriters, or null if there are none
+    private volatile TransactionId slotDirtier;
+    // true while the page holds changes of a transaction that locks the
+    // whole page and has not committed
+    private volatile boolean uncommitted;
+
+    // history of the slots for snapshot reads; null unless multi-versioning
+    // is on
+    private volatile SlotVersions versions;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -40,32 +68,45 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps a reference to data and decodes tuples from it lazily,
+     * so the caller must not modify the array afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page, for example a slice
+     * of a memory-mapped file. Only the header is read up front; tuples are
+     * decoded straight from the buffer the first time they are accessed, so
+     * the buffer must stay valid and unchanged for the lifetime of the page.
+     * The buffer's position and limit are not changed.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+            header[i] = data.get(i);
 
-        setBeforeImage();
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+
+        tuples = new Tuple[numSlots];
+        modified = false;
+        dirtier = null;
+        oldData = null;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -97,7 +138,13 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null) {
+                oldDataRef = copyOriginalImage();
+            }
+            HeapPage before = new HeapPage(pid,oldDataRef);
+            // no older than the image; conservative for write ahead
+            before.lsn = lsn;
+            return before;
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -109,10 +156,54 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // an unmodified page is still its own original image
+        oldData = modified ? getPageData() : null;
+        uncommitted = false;
         }
     }
 
+    /**
+     * Makes the current contents the committed image on behalf of tid, and
+     * stamps the slots tid changed in the page's history.
+     */
+    synchronized void commitImage(TransactionId tid) {
+        SlotVersions v = versions;
+        if (v != null) {
+            v.stamp(tid, getBeforeImage(), this);
+        }
+        setBeforeImage();
+    }
+
+    SlotVersions getVersions() {
+        return versions;
+    }
+
+    void setVersions(SlotVersions versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * Keep the current contents as the before image ahead of the first
+     * modification since the last {@link #setBeforeImage}.
+     */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null) {
+            // the original image may be a view of a file that will be rewritten
+            oldData = copyOriginalImage();
+        }
+        }
+    }
+
+    private byte[] copyOriginalImage() {
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        src.get(copy, 0, Math.min(copy.length, src.remaining()));
+        return copy;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -122,34 +213,69 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Byte offset of the given slot from the start of the page.
+     */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Returns the tuple in the given slot, decoding it from the page image if
+     * it has not been accessed before.
+     * <p>
+     * Concurrent readers may both decode a slot; they get equal tuples.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    public Tuple getTuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+            return null;
+        }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            // a writer may fill or empty the slot meanwhile; decoding under
+            // the page's lock never overwrites its tuple with the old one
+            synchronized (this) {
+                if (!isSlotUsed(slotId)) {
+                    return null;
+                }
+                t = tuples[slotId];
+                if (t == null) {
+                    t = readTuple(slotId);
+                    tuples[slotId] = t;
                 }
             }
-            return null;
         }
+        return t;
+    }
 
+    /**
+     * Returns a single field of the tuple in the given slot without
+     * materializing the rest of the tuple. Used to evaluate predicates on
+     * tuples that may never be returned.
+     *
+     * @param slotId a used slot of this page
+     * @param fieldIndex index of the field in the page's TupleDesc
+     */
+    public Field getField(int slotId, int fieldIndex) {
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t.getField(fieldIndex);
+        }
+        return td.getFieldType(fieldIndex).parse(data, slotOffset(slotId) + fieldOffsets[fieldIndex]);
+    }
+
+    /**
+     * Decode the tuple stored in the given used slot of the page image.
+     */
+    private Tuple readTuple(int slotId) {
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        int offset = slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(data, offset + fieldOffsets[j]));
         }
 
         return t;
@@ -167,64 +293,46 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        if (!modified) {
+            return copyOriginalImage();
+        }
+
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        int tupleSize = td.getSize();
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        System.arraycopy(header, 0, pageData, 0, header.length);
 
-        // create the tuples
+        // create the tuples; empty slots and the padding stay zero
+        ByteBuffer src = data.duplicate();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
         for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
                 continue;
             }
-
-            // non-empty slot
+            int offset = slotOffset(i);
+            Tuple t = tuples[i];
+            if (t == null) {
+                // never touched: copy the bytes of the original image
+                src.clear();
+                src.position(offset);
+                src.get(pageData, offset, tupleSize);
+                continue;
+            }
+            baos.reset();
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    t.getField(j).serialize(dos);
                 } catch (IOException e) {
+                    // this really shouldn't happen
                     e.printStackTrace();
                 }
             }
+            System.arraycopy(baos.toByteArray(), 0, pageData, offset, tupleSize);
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return pageData;
     }
 
     /**
@@ -248,9 +356,26 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        removeTuple(t);
+        uncommitted = true;
+    }
+
+    private void removeTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        captureBeforeImage();
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        modified = true;
     }
 
     /**
@@ -260,9 +385,32 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotFree(i)) {
+                putTuple(t, i);
+                uncommitted = true;
+                return;
+            }
+        }
+        throw new DbException("page is full");
+    }
+
+    private void putTuple(Tuple t, int slot) {
+        captureBeforeImage();
+        SlotVersions v = versions;
+        if (v != null) {
+            v.reuse(slot);
+        }
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        modified = true;
     }
 
     /**
@@ -272,6 +420,7 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -280,16 +429,247 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
-        return null;      
+        TransactionId tid = dirtier;
+        return tid != null ? tid : slotDirtier;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the first empty slot at or after from. Under record-level
+     * locking, the caller still has to lock the slot's RecordId before
+     * inserting into it.
+     *
+     * @return the slot, or -1 if there is none
+     */
+    synchronized int nextFreeSlot(int from) {
+        for (int i = from; i < numSlots; i++) {
+            if (isSlotFree(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts t into the given slot on behalf of a transaction that holds
+     * the exclusive lock on the slot's RecordId but not on the page.
+     *
+     * @return false if the slot is no longer empty
+     * @throws DbException if the tupledesc is mismatch
+     */
+    synchronized boolean insertTuple(Tuple t, int slot, TransactionId tid) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        if (!isSlotFree(slot)) {
+            return false;
+        }
+        putTuple(t, slot);
+        slotChanged(tid, slot);
+        return true;
+    }
+
+    /**
+     * Deletes t on behalf of a transaction that holds the exclusive lock on
+     * its RecordId but not on the page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    synchronized void deleteTuple(Tuple t, TransactionId tid) throws DbException {
+        removeTuple(t);
+        slotChanged(tid, t.getRecordId().getTupleNumber());
+    }
+
+    private void slotChanged(TransactionId tid, int slot) {
+        if (slotWriters == null) {
+            slotWriters = new HashMap<>();
+        }
+        slotWriters.computeIfAbsent(tid, k -> new BitSet(numSlots)).set(slot);
+        slotDirtier = tid;
+    }
+
+    /**
+     * @return true if tid changed slots of this page through record-level
+     *         locks and has not completed yet
+     */
+    synchronized boolean hasSlotChanges(TransactionId tid) {
+        return slotWriters != null && slotWriters.containsKey(tid);
+    }
+
+    /**
+     * @return true if running transactions changed slots of this page
+     *         through record-level locks
+     */
+    synchronized boolean hasSlotChanges() {
+        return slotWriters != null && !slotWriters.isEmpty();
+    }
+
+    /**
+     * Makes the slots tid changed part of the committed image of this page.
+     * Slots changed by other running transactions keep their committed
+     * contents in that image. The page stays dirty on behalf of tid until
+     * {@link #releaseSlots} is called.
+     *
+     * @return the committed images before and after tid's changes
+     */
+    synchronized HeapPage[] commitSlots(TransactionId tid) {
+        BitSet slots = slotWriters.get(tid);
+        HeapPage before = getBeforeImage();
+        byte[] image = before.getPageData();
+        for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+            writeSlot(image, i, getTuple(i));
+        }
+        synchronized(oldDataLock)
+        {
+        oldData = image;
+        }
+        HeapPage after = getBeforeImage();
+        SlotVersions v = versions;
+        if (v != null) {
+            v.stamp(tid, before, after);
+        }
+        return new HeapPage[]{before, after};
+    }
+
+    /**
+     * Stores t, or an empty slot if t is null, in the given slot of a page
+     * image.
+     */
+    private void writeSlot(byte[] image, int slot, Tuple t) {
+        int headerByte = slot / 8;
+        int bit = 1 << (slot % 8);
+        int offset = slotOffset(slot);
+        int tupleSize = td.getSize();
+        if (t == null) {
+            image[headerByte] &= (byte) ~bit;
+            Arrays.fill(image, offset, offset + tupleSize, (byte) 0);
+            return;
+        }
+        image[headerByte] |= (byte) bit;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j=0; j<td.numFields(); j++) {
+            try {
+                t.getField(j).serialize(dos);
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+        }
+        System.arraycopy(baos.toByteArray(), 0, image, offset, tupleSize);
+    }
+
+    /**
+     * Forgets the slots tid changed once its commit is complete.
+     */
+    synchronized void releaseSlots(TransactionId tid) {
+        slotWriters.remove(tid);
+        slotsCompleted();
+    }
+
+    /**
+     * Puts the committed contents back into the slots tid changed.
+     */
+    synchronized void abortSlots(TransactionId tid) {
+        BitSet slots = slotWriters.remove(tid);
+        HeapPage committed = getBeforeImage();
+        for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+            Tuple t = committed.getTuple(i);
+            markSlotUsed(i, t != null);
+            tuples[i] = t;
+        }
+        slotsCompleted();
+    }
+
+    private void slotsCompleted() {
+        slotDirtier = slotWriters.isEmpty() ? null : slotWriters.keySet().iterator().next();
+    }
+
+    /**
+     * Returns the contents of this page as of the given snapshot: the
+     * committed image, or the current contents if only the snapshot's own
+     * transaction has changed the page, with the page's history applied.
+     * The result is always a copy, so writes to this page after it was
+     * taken never show through.
+     */
+    synchronized HeapPage snapshotView(Snapshot snapshot) {
+        TransactionId self = snapshot.getTransactionId();
+        BitSet own = slotWriters == null ? null : slotWriters.get(self);
+        boolean othersWriting = (uncommitted && !self.equals(dirtier))
+                || (slotWriters != null && slotWriters.size() > (own == null ? 0 : 1));
+        SlotVersions v = versions;
+        byte[] image;
+        if (othersWriting) {
+            image = getBeforeImage().getPageData();
+            if (own != null) {
+                for (int i = own.nextSetBit(0); i >= 0; i = own.nextSetBit(i + 1)) {
+                    writeSlot(image, i, getTuple(i));
+                }
+            }
+        } else {
+            image = getPageData();
+        }
+        if (v != null && !v.isEmpty()) {
+            synchronized (v) {
+                for (int i = 0; i < numSlots; i++) {
+                    if ((image[i / 8] & (1 << (i % 8))) != 0) {
+                        if (v.isHidden(i, snapshot)) {
+                            writeSlot(image, i, null);
+                        }
+                    } else {
+                        Tuple old = v.deletedVersion(i, snapshot);
+                        if (old != null) {
+                            writeSlot(image, i, old);
+                        }
+                    }
+                }
+            }
+        }
+        return new HeapPage(pid, ByteBuffer.wrap(image));
+    }
+
+    /**
+     * Returns true if the given slot is empty and may take a new tuple. With
+     * multi-versioning on, a slot whose tuple was deleted is only reused
+     * once the deletion has committed and every snapshot sees it.
+     */
+    private boolean isSlotFree(int i) {
+        if (isSlotUsed(i)) {
+            return false;
+        }
+        SlotVersions v = versions;
+        return v == null || (!isCommittedSlotUsed(i) && v.isReusable(i));
+    }
+
+    /**
+     * @return true if the slot is used in the committed image of this page
+     */
+    private boolean isCommittedSlotUsed(int i) {
+        byte[] committed;
+        synchronized(oldDataLock)
+        {
+        committed = oldData;
+        }
+        // without a before image the page has not changed since it was read
+        return committed != null ? (committed[i / 8] & (1 << (i % 8))) != 0 : isSlotUsed(i);
+    }
+
+    /**
+     * Returns the number of empty slots on this page that can take a new
+     * tuple.
      */
     public int getNumEmptySlots() {
         int count = 0;
         for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
+            if (isSlotFree(i)) {
                 count++;
             }
         }
@@ -311,17 +691,24 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        int headerByte = i / 8;
+        int headerBit = i % 8;
+        if (value) {
+            header[headerByte] |= (byte) (1 << headerBit);
+        } else {
+            header[headerByte] &= (byte) ~(1 << headerBit);
+        }
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * Tuples are decoded one at a time as the iterator reaches them.
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
         return new Iterator<Tuple>() {
-            int numSlots = getNumTuples() - getNumEmptySlots();
-            int currentIndex = 0;
+            int currentIndex = nextUsedSlot(0);
             @Override
             public boolean hasNext() {
                 return currentIndex < numSlots;
@@ -329,14 +716,48 @@ public class HeapPage implements Page {
 
             @Override
             public Tuple next() {
-                while (!isSlotUsed(currentIndex)) {
-                    currentIndex++;
+                if (currentIndex >= numSlots) {
+                    throw new NoSuchElementException();
                 }
-                return tuples[currentIndex++];
+                Tuple t = getTuple(currentIndex);
+                currentIndex = nextUsedSlot(currentIndex + 1);
+                return t;
             }
         };
 
     }
 
-}
+    /**
+     * @return the first used slot at or after from, or numSlots if none
+     */
+    int nextUsedSlot(int from) {
+        int i = from;
+        while (i < numSlots && !isSlotUsed(i)) {
+            i++;
+        }
+        return i;
+    }
 
+    /**
+     * Appends the tuples in used slots, starting at slot from, to batch until
+     * the batch is full. Slots that were never decoded are copied straight
+     * from the page image into the batch's column vectors.
+     *
+     * @return the slot to continue from, or numSlots if the page is done
+     */
+    int fillBatch(TupleBatch batch, int from) {
+        ByteBuffer src = data.duplicate();
+        int slot = nextUsedSlot(from);
+        while (slot < numSlots && !batch.isFull()) {
+            Tuple t = tuples[slot];
+            if (t != null) {
+                batch.append(t);
+            } else {
+                batch.appendSerialized(src, slotOffset(slot), fieldOffsets, pid, slot);
+            }
+            slot = nextUsedSlot(slot + 1);
+        }
+        return slot;
+    }
+
+}
@@ -0,0 +1,133 @@
+package simpledb.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Optional compression of the page bytes in log records. The empty slots
+ * and the tail of a HeapPage are zeros, and so are the bytes of a slot
+ * before an insert or after a delete, so runs of zeros are replaced by
+ * their length and all other bytes are copied.
+ * <p>
+ * Every payload starts with a byte naming its encoding, so a log can mix
+ * records written with and without compression. A payload that would not
+ * get smaller is written as it is.
+ */
+final class LogCompression {
+
+    /** Encoding of payloads written as they are. */
+    static final int RAW = 0;
+    /**
+     * Encoding of payloads written as a sequence of a literal length, that
+     * many bytes, and the length of the run of zeros that follows them,
+     * until the payload is complete. Lengths are unsigned varints.
+     */
+    static final int ZERO_RUNS = 1;
+
+    /** Shorter runs of zeros are copied, since a run costs a few bytes. */
+    static final int MIN_RUN = 4;
+
+    private LogCompression() {
+    }
+
+    /** Writes data, compressing it if compress is set and that helps. */
+    static void write(DataOutput out, byte[] data, boolean compress) throws IOException {
+        if (compress) {
+            byte[] packed = encode(data);
+            if (packed.length < data.length) {
+                out.writeByte(ZERO_RUNS);
+                out.write(packed);
+                return;
+            }
+        }
+        out.writeByte(RAW);
+        out.write(data);
+    }
+
+    /**
+     * Reads a payload written by {@link #write} into data, whose length
+     * is the length of the payload.
+     */
+    static void read(DataInput in, byte[] data) throws IOException {
+        int encoding = in.readUnsignedByte();
+        if (encoding == RAW) {
+            in.readFully(data);
+            return;
+        }
+        if (encoding != ZERO_RUNS) {
+            throw new IOException("unknown page encoding " + encoding);
+        }
+        int pos = 0;
+        while (pos < data.length) {
+            int literal = readLength(in);
+            if (literal > data.length - pos) {
+                throw new IOException("compressed page bytes overrun the payload");
+            }
+            in.readFully(data, pos, literal);
+            pos += literal;
+            int zeros = readLength(in);
+            if (zeros > data.length - pos) {
+                throw new IOException("compressed page bytes overrun the payload");
+            }
+            // data is new, so the zeros are already there
+            pos += zeros;
+        }
+    }
+
+    private static byte[] encode(byte[] data) {
+        ByteArrayOutputStream packed = new ByteArrayOutputStream(data.length / 4);
+        int pos = 0;
+        while (pos < data.length) {
+            // the literal ends at the next run long enough to pay off
+            int end = pos;
+            int run = 0;
+            while (end < data.length) {
+                run = zeroRun(data, end);
+                if (run >= MIN_RUN || end + run == data.length) {
+                    break;
+                }
+                end += Math.max(run, 1);
+                run = 0;
+            }
+            writeLength(packed, end - pos);
+            packed.write(data, pos, end - pos);
+            writeLength(packed, run);
+            pos = end + run;
+        }
+        return packed.toByteArray();
+    }
+
+    /** @return the number of zeros in data from pos on */
+    private static int zeroRun(byte[] data, int pos) {
+        int end = pos;
+        while (end < data.length && data[end] == 0) {
+            end++;
+        }
+        return end - pos;
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int n) {
+        while ((n & ~0x7f) != 0) {
+            out.write((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.write(n);
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (n < 0) {
+                    break;
+                }
+                return n;
+            }
+        }
+        throw new IOException("malformed length in compressed page bytes");
+    }
+}
@@ -6,8 +6,22 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -21,8 +35,8 @@ two-phase locking discipline are followed.  <p>
 Many of the methods here are synchronized (to prevent concurrent log
 writes from happening); many of the methods in BufferPool are also
 synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
+log records (on page flushed) and the log file writes BufferPool
+pages (on rollback and recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
 must not be declared synchronized and must begin with a block like:
 
@@ -36,6 +50,82 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+Forcing the log does not hold the LogFile lock. A transaction that needs
+its records on disk (logCommit, force) waits until they are durable; the
+first one to find no force in progress becomes the leader and forces the
+log on behalf of every waiter whose records were appended by then, while
+later committers keep appending and wait for the next force. The leader
+may first wait up to {@link #setGroupCommitDelay} for more committers to
+join its group. Records are counted by their sequence number in
+totalRecords.
+
+<p>
+<u> Log buffer: </u>
+<p>
+
+Records are serialized into an in-memory log buffer rather than written
+field by field, and the buffer is written to the end of the log with
+positional channel writes when it fills up, when a commit or force needs
+the records on disk, and before the log is read. Offsets of records, such
+as currentOffset, count the buffered bytes as if they had been written.
+
+<p>
+<u> Segments: </u>
+<p>
+
+The records live in segment files of a fixed size, named after the log
+file followed by the segment's index, and are addressed by their offset
+in the log as a whole; a record may continue in the next segment. The
+log file itself only holds the offset of the last checkpoint. Truncation
+deletes the segments that end before the oldest record the last
+checkpoint still needs, so offsets never change and commits go on
+meanwhile.
+
+<p>
+<u> Checkpoints: </u>
+<p>
+
+Checkpoints are fuzzy: {@link #logCheckpoint} writes no pages and holds
+the LogFile lock only while it appends the checkpoint record. Besides the
+active transactions, the record holds the dirty page table, the pages
+with logged updates that may not be on disk yet, each with the offset of
+the oldest such update. An entry is added by logWrite and dropped by
+{@link #pageWritten} once an image holding the page's last logged update
+is written and forced to disk, which the background writer does on its
+own schedule. A checkpoint is only pointed to once its record is
+durable.
+
+<p>
+<u> Recovery: </u>
+<p>
+
+The LSN of a record is its sequence number. Each page remembers the LSN of
+the last record that logged it, and the BufferPool forces the log up to
+that LSN before the page is written (see {@link #force(long)}). Records
+write whole byte ranges or page images, so redoing or undoing one twice
+is harmless.
+
+<p>
+
+{@link #recover} follows ARIES. Analysis starts at the last checkpoint
+and finds the transactions that never committed or aborted, beginning
+with those listed in the checkpoint record. Redo repeats the updates
+logged after the checkpoint and, for each page in its dirty page table,
+those from the page's oldest unwritten update on, applying them to images
+of the pages in memory and writing each page once at the end. Records of
+different pages are independent, so while analysis reads the log, redo
+runs on {@link #setRedoParallelism} threads, each owning the pages whose
+ids hash to it and applying their records in log order.
+A transaction's deltas for a page are all taken against the page as last
+committed, so before redoing one, redo undoes the previous one of the
+same transaction on that page. Undo then reads back to the first record
+of each loser. Undo, here and in {@link #rollback}, restores
+before images newest first and logs a CLR for each one, so that an undo
+interrupted by a crash is redone and not undone twice.
 */
 
 /**
@@ -43,39 +133,56 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file holds one long integer, the offset of the last
+written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The segments hold log records, from offset 0 on, with segment i
+holding the bytes from offset i * segment size.  Log records are
+variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer offset representing
+the position in the log where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+<li>UPDATE RECORDS consist of a delta between a before image and an
+after image of a page: the page type and id, and the byte ranges in
+which the images differ, with the bytes of both images.  See PageDelta
+and PageType.
+
+<li> The page bytes of UPDATE and CLR records begin with a byte naming
+their encoding: as they are, or with runs of zeros compressed if
+{@link #setCompression} was on when the record was written.  See
+LogCompression.
+
+<li>Full page images, as in CLR records, are serialized Page objects,
+and can be accessed with the LogFile.readPageData() and
+LogFile.writePageData() methods.  See LogFile.print() for an example.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed
+by the dirty page table.  The format of the record is an integer count
+of the number of transactions, as well as a long integer transaction id
+and a long integer first record offset for each active transaction;
+then an integer count of dirty pages, as well as the page type and id
+and a long integer offset of the oldest unwritten update for each.
+
+<li> CLR (compensation log) records consist of the page image an undo
+restored.  A CLR compensates the newest UPDATE record of its transaction
+that no earlier CLR compensates.
 
 </ul>
 */
 public class LogFile {
 
     final File logFile;
+    // the log file, holding the offset of the last checkpoint
     private RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
@@ -84,6 +191,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -95,6 +203,71 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // pages with logged updates that may not be on disk; guarded by itself
+    private final Map<PageId, DirtyPage> dirtyPages = new HashMap<>();
+    // serializes checkpoints; taken before this
+    private final Object checkpointLock = new Object();
+    // offset of the last durable checkpoint; protected by this
+    private long checkpointOffset = NO_CHECKPOINT_ID;
+
+    /** An entry of the dirty page table. */
+    private static final class DirtyPage {
+        final PageType type;
+        // offset of the oldest update that may not be on disk
+        final long firstOffset;
+        // LSN of the newest update
+        long lastLSN;
+
+        DirtyPage(PageType type, long firstOffset, long lastLSN) {
+            this.type = type;
+            this.firstOffset = firstOffset;
+            this.lastLSN = lastLSN;
+        }
+    }
+
+    /** Default size of a segment in bytes. */
+    public static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final long segmentSize;
+    // open segments by index; protected by this
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+
+    /** Size of the log buffer in bytes. */
+    public static final int BUFFER_SIZE = 256 * 1024;
+    // buffer size for reading the log back
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // records not yet written to the file; protected by this
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // file offset the buffer's first byte is written to; protected by this
+    private long bufferStart;
+    // serializes records into buffer; protected by this
+    private final DataOutputStream out = new DataOutputStream(new BufferOutput());
+    private long writeCalls; // protected by this
+    // compress the page bytes of new records; protected by this
+    private boolean compress;
+
+    // group commit state, guarded by forceLock
+    private final Object forceLock = new Object();
+    // records up to this sequence number are on disk
+    private long durableRecords;
+    // largest sequence number a waiter needs on disk
+    private long requestedRecords;
+    // true while a leader forces the log
+    private boolean forcing;
+    // segments written since they were last forced, with their indexes
+    private final Map<FileChannel, Long> unforced = new HashMap<>();
+    // channels of segments deleted by truncation
+    private final Set<FileChannel> truncated = Collections.newSetFromMap(new WeakHashMap<>());
+    private long groupCommitDelayNanos;
+
+    // threads that redo updates in recover
+    private int redoParallelism = Runtime.getRuntime().availableProcessors();
+    // records a redo thread may fall behind the log scan
+    static final int REDO_QUEUE_SIZE = 1024;
+    private long syncCount;
+    private long commitCount;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,7 +280,17 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+        @param f The log file's name
+        @param segmentSize The size of the segment files in bytes; must
+               be the same as when the log was written
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
+        this.segmentSize = segmentSize;
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
@@ -129,17 +312,194 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            reset();
+        }
+    }
+
+    /** Throws out the contents of the log; requires this. */
+    private void reset() throws IOException {
+        raf.seek(0);
+        raf.setLength(0);
+        raf.writeLong(NO_CHECKPOINT_ID);
+        checkpointOffset = NO_CHECKPOINT_ID;
+        deleteSegments(segmentIndexes());
+        resumeAppending(0);
+    }
+
+    /** @return the file of the segment with the given index */
+    private File segmentFile(long index) {
+        return new File(logFile.getPath() + "." + String.format("%010d", index));
+    }
+
+    /** @return the indexes of the segment files on disk, in order */
+    private List<Long> segmentIndexes() {
+        File dir = logFile.getAbsoluteFile().getParentFile();
+        String prefix = logFile.getName() + ".";
+        List<Long> indexes = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                String suffix = name.substring(Math.min(prefix.length(), name.length()));
+                if (name.startsWith(prefix) && suffix.length() == 10 && suffix.chars().allMatch(Character::isDigit)) {
+                    indexes.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    /**
+     * Returns the channel of a segment, opening the segment and creating
+     * it if needed. Requires this.
+     */
+    private FileChannel segment(long index) throws IOException {
+        FileChannel ch = segments.get(index);
+        if (ch == null || !ch.isOpen()) {
+            // an interrupted read or write closes the channel; reopen it
+            // and force it later, since it may hold unforced writes
+            ch = FileChannel.open(segmentFile(index).toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            boolean reopened = segments.put(index, ch) != null;
+            if (reopened) {
+                synchronized (forceLock) {
+                    unforced.put(ch, index);
+                }
+            }
+        }
+        return ch;
+    }
+
+    /** Closes and deletes the given segments; requires this. */
+    private void deleteSegments(List<Long> indexes) throws IOException {
+        for (long index : indexes) {
+            FileChannel ch = segments.remove(index);
+            if (ch != null) {
+                // a leader forcing it meanwhile finds it closed and in truncated
+                synchronized (forceLock) {
+                    truncated.add(ch);
+                    unforced.remove(ch);
+                }
+                ch.close();
+            }
+            Files.deleteIfExists(segmentFile(index).toPath());
+        }
+    }
+
+    /** @return the offset the next record will start at */
+    private long position() {
+        return bufferStart + buffer.position();
+    }
+
+    /**
+     * Writes the log buffer to the segments, without forcing them.
+     */
+    private void flushBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        int limit = buffer.limit();
+        while (buffer.hasRemaining()) {
+            long offset = bufferStart % segmentSize;
+            long index = bufferStart / segmentSize;
+            FileChannel ch = segment(index);
+            // stop at the end of the segment
+            buffer.limit((int) Math.min(limit, buffer.position() + (segmentSize - offset)));
+            bufferStart += ch.write(buffer, offset);
+            buffer.limit(limit);
+            writeCalls++;
+            synchronized (forceLock) {
+                unforced.put(ch, index);
+            }
+        }
+        buffer.clear();
+    }
+
+    /** Feeds {@link #out} into the log buffer, flushing it when full. */
+    private final class BufferOutput extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    flushBuffer();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
         }
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /**
+     * Sets whether the page bytes of the UPDATE and CLR records written
+     * from now on have their runs of zeros compressed, which costs some
+     * CPU time per record. Off by default; a log may mix both kinds.
+     */
+    public synchronized void setCompression(boolean compress) {
+        this.compress = compress;
+    }
+
+    /** @return the number of write calls that wrote the log buffer */
+    public synchronized long getWriteCallCount() {
+        return writeCalls;
+    }
+
+    /**
+     * Sets how long the leader of a group commit waits for more committers
+     * to join before it forces the log. The default of 0 forces at once;
+     * committers that arrive during a force still share the next one.
+     */
+    public void setGroupCommitDelay(long delay, TimeUnit unit) {
+        synchronized (forceLock) {
+            groupCommitDelayNanos = unit.toNanos(delay);
+        }
+    }
+
+    /**
+     * Sets the number of threads that redo updates in {@link #recover},
+     * one per processor by default.
+     */
+    public synchronized void setRedoParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        redoParallelism = parallelism;
+    }
+
+    /** @return the number of times the log was forced to disk */
+    public long getSyncCount() {
+        synchronized (forceLock) {
+            return syncCount;
+        }
+    }
+
+    /** @return the number of commits and forces that waited for the log */
+    public long getCommitCount() {
+        synchronized (forceLock) {
+            return commitCount;
+        }
+    }
+
+    /** @return the average number of commits made durable by one force */
+    public double getCommitsPerSync() {
+        synchronized (forceLock) {
+            return syncCount == 0 ? 0 : (double) commitCount / syncCount;
+        }
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -160,10 +520,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = position();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -175,17 +535,22 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long record;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = position();
+            tidToFirstLogRecord.remove(tid.getId());
+            record = totalRecords;
+            flushBuffer();
+        }
+        awaitDurable(record);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -193,99 +558,90 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the record
+
+        Only the bytes in which the images differ are logged.
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + position());
         preAppend();
         /* update record conists of
 
            record type
            transaction id
-           before page data (see writePageData)
-           after page data
+           delta from the before image to the after image (see PageDelta)
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        // a transaction that logged no BEGIN starts with its first update
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), currentOffset);
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
+
+        PageDelta delta = PageDelta.diff(before, after);
+        delta.write(out, compress);
+        synchronized (dirtyPages) {
+            DirtyPage d = dirtyPages.get(delta.getPageId());
+            if (d == null) {
+                dirtyPages.put(delta.getPageId(), new DirtyPage(delta.getPageType(), currentOffset, totalRecords));
+            } else {
+                d.lastLSN = totalRecords;
+            }
+        }
+        out.writeLong(currentOffset);
+        currentOffset = position();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return totalRecords;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    /**
+     * Tells the log that an image of a page was written and forced to
+     * disk, so that the page can leave the dirty page table if the image
+     * holds the last update logged for it. Takes neither this nor the
+     * buffer pool lock.
+     *
+     * @param pid the page written
+     * @param lsn the LSN of the written image (see {@link Page#getLSN})
+     */
+    void pageWritten(PageId pid, long lsn) {
+        synchronized (dirtyPages) {
+            DirtyPage d = dirtyPages.get(pid);
+            // with a newer update logged, the entry keeps its older offset
+            // until that one is written too
+            if (d != null && d.lastLSN <= lsn) {
+                dirtyPages.remove(pid);
+            }
+        }
+    }
 
+    void writePageData(DataOutput raf, Page p) throws IOException{
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+        // page type and id (see PageType)
+        // page size
+        // page bytes, optionally compressed (see LogCompression)
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        PageType.of(p).write(raf, p.getId());
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
         byte[] pageData = p.getPageData();
         raf.writeInt(pageData.length);
-        raf.write(pageData);
+        LogCompression.write(raf, pageData, compress);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    Page readPageData(DataInput raf) throws IOException {
+        PageType type = PageType.read(raf);
+        PageId pid = type.readId(raf);
+        int pageSize = raf.readInt();
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+        byte[] pageData = new byte[pageSize];
+        LogCompression.read(raf, pageData);
 
+        //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
+        return type.newPage(pid, pageData);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -300,150 +656,113 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = position();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record. Writes no
+        pages and holds the LogFile lock only while appending the record;
+        see the class comment. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointLock) {
+            long startCpOffset;
+            long record;
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = position();
+                out.writeInt(CHECKPOINT_RECORD);
+                out.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                out.writeInt(tidToFirstLogRecord.size());
+                for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    out.writeLong(e.getKey());
+                    out.writeLong(e.getValue());
+                }
+                //write the dirty page table
+                synchronized (dirtyPages) {
+                    out.writeInt(dirtyPages.size());
+                    for (Map.Entry<PageId, DirtyPage> e : dirtyPages.entrySet()) {
+                        e.getValue().type.write(out, e.getKey());
+                        out.writeLong(e.getValue().firstOffset);
+                    }
                 }
+                out.writeLong(currentOffset);
+                currentOffset = position();
+                record = totalRecords;
+            }
+            // commits go on while the record is forced
+            force(record);
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //once the CP is written, make sure the CP location in the
+            // log file is updated
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.getChannel().force(true);
+            synchronized (this) {
+                checkpointOffset = startCpOffset;
             }
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption: delete the segments that end before the last
+        checkpoint, the first record of every transaction it lists and
+        the oldest unwritten update of every page in its dirty page table.
+        Commits are not held up, since no record is moved */
     public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        if (recoveryUndecided) {
+            // the log may yet be needed for recovery
+            return;
         }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+        long minLogRecord = oldestNeededRecord();
+        if (minLogRecord == NO_CHECKPOINT_ID) {
+            return;
+        }
+        List<Long> unneeded = new ArrayList<>();
+        for (long index : segmentIndexes()) {
+            if ((index + 1) * segmentSize <= minLogRecord) {
+                unneeded.add(index);
             }
         }
+        Debug.log("TRUNCATING LOG; DELETING " + unneeded.size() + " SEGMENTS BEFORE " + minLogRecord);
+        // the checkpoint pointing past them is already durable
+        deleteSegments(unneeded);
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+    /**
+     * @return the offset of the last checkpoint or of the oldest record
+     *         it refers to, whichever is smaller, or -1 if there is no
+     *         checkpoint. Requires this.
+     */
+    private long oldestNeededRecord() throws IOException {
+        long cpLoc = checkpointOffset;
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return NO_CHECKPOINT_ID;
+        }
+        flushBuffer();
+        LogRecord cp = readRecord(new LogReader(cpLoc));
+        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+            throw new IOException("checkpoint pointer does not point to checkpoint record");
+        }
+        long minLogRecord = cpLoc;
+        for (long firstLogRecord : cp.active.values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        }
+        for (long firstUpdate : cp.dirty.values()) {
+            minLogRecord = Math.min(minLogRecord, firstUpdate);
+        }
+        return minLogRecord;
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -460,18 +779,46 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    // nothing of tid reached the log
+                    return;
+                }
+                flushBuffer();
+                Map<Long, Deque<LogRecord>> pending = new HashMap<>();
+                pending.put(tid.getId(), new ArrayDeque<>());
+                LogReader reader = new LogReader(first);
+                LogRecord r;
+                while ((r = readRecord(reader)) != null) {
+                    collectUndo(r, pending);
+                }
+                undo(pending);
             }
         }
     }
 
+    /** @return true if the log holds records of tid that an abort must roll back */
+    synchronized boolean isLogged(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // a checkpoint writes no pages, so write them first to keep
+            // redo short
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+                for (FileChannel ch : segments.values()) {
+                    ch.close();
+                }
+                segments.clear();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -487,17 +834,606 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged
+                    reset();
+                    return;
+                }
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                checkpointOffset = cpLoc;
+
+                // analysis: transactions that did not finish, each with
+                // its updates that are not compensated yet
+                Map<Long, Deque<LogRecord>> losers = new HashMap<>();
+                // pages whose updates before redoStart may not be on disk,
+                // with the offset of the oldest such update
+                Map<PageId, Long> dirty = new HashMap<>();
+                long redoStart = 0;
+                long scanStart = 0;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    LogRecord cp = readRecord(new LogReader(cpLoc));
+                    if (cp == null || cp.type != CHECKPOINT_RECORD) {
+                        throw new IOException("checkpoint pointer does not point to checkpoint record");
+                    }
+                    redoStart = cpLoc;
+                    scanStart = cpLoc;
+                    for (Map.Entry<Long, Long> e : cp.active.entrySet()) {
+                        losers.put(e.getKey(), new ArrayDeque<>());
+                        scanStart = Math.min(scanStart, e.getValue());
+                    }
+                    dirty = cp.dirty;
+                    for (long firstUpdate : dirty.values()) {
+                        scanStart = Math.min(scanStart, firstUpdate);
+                    }
+                }
+
+                // the last update of each page; records before the
+                // checkpoint are on disk unless the dirty page table says
+                // otherwise, so of the others only the undo information
+                // of its active transactions matters
+                Map<PageId, LogRecord> lastUpdate = new HashMap<>();
+                // offset of the COMMIT or ABORT record of each transaction
+                Map<Long, Long> finished = new HashMap<>();
+                long end = scanStart;
+                // redo: repeat history, losers included, page by page
+                RedoPartition[] partitions = new RedoPartition[redoParallelism];
+                ExecutorService redoThreads = Executors.newFixedThreadPool(partitions.length);
+                List<Future<Void>> redone = new ArrayList<>();
+                for (int i = 0; i < partitions.length; i++) {
+                    partitions[i] = new RedoPartition();
+                    redone.add(redoThreads.submit(partitions[i]));
+                }
+                try {
+                    LogReader reader = new LogReader(scanStart);
+                    LogRecord r;
+                    while ((r = readRecord(reader)) != null) {
+                        end = reader.offset();
+                        boolean afterCp = r.offset >= redoStart;
+                        switch (r.type) {
+                        case BEGIN_RECORD:
+                            if (afterCp) {
+                                losers.putIfAbsent(r.tid, new ArrayDeque<>());
+                            }
+                            break;
+                        case UPDATE_RECORD:
+                            PageId pid = r.delta.getPageId();
+                            LogRecord prev = lastUpdate.put(pid, r);
+                            if (afterCp || isUnwritten(dirty, pid, r.offset)) {
+                                Long done = finished.get(r.tid);
+                                boolean revert = prev != null && prev.tid == r.tid && (done == null || done < prev.offset);
+                                partitionOf(partitions, pid).add(new RedoStep(r, revert ? prev : null));
+                            }
+                            if (afterCp) {
+                                losers.putIfAbsent(r.tid, new ArrayDeque<>());
+                            }
+                            collectUndo(r, losers);
+                            break;
+                        case CLR_RECORD:
+                            lastUpdate.remove(r.image.getId());
+                            if (afterCp || isUnwritten(dirty, r.image.getId(), r.offset)) {
+                                partitionOf(partitions, r.image.getId()).add(new RedoStep(r, null));
+                            }
+                            if (afterCp) {
+                                losers.putIfAbsent(r.tid, new ArrayDeque<>());
+                            }
+                            collectUndo(r, losers);
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            finished.put(r.tid, r.offset);
+                            losers.remove(r.tid);
+                            break;
+                        }
+                    }
+                    for (RedoPartition p : partitions) {
+                        p.add(RedoStep.END);
+                    }
+                    for (Future<Void> f : redone) {
+                        await(f);
+                    }
+                } finally {
+                    redoThreads.shutdownNow();
+                }
+                // drop a record torn by the crash
+                List<Long> beyond = new ArrayList<>();
+                for (long index : segmentIndexes()) {
+                    if (index * segmentSize >= end) {
+                        beyond.add(index);
+                    }
+                }
+                deleteSegments(beyond);
+                if (segmentFile(end / segmentSize).exists()) {
+                    segment(end / segmentSize).truncate(end % segmentSize);
+                }
+                resumeAppending(end);
+
+                undo(losers);
+                for (Long tid : losers.keySet()) {
+                    preAppend();
+                    out.writeInt(ABORT_RECORD);
+                    out.writeLong(tid);
+                    out.writeLong(currentOffset);
+                    currentOffset = position();
+                }
+                force();
             }
          }
     }
 
+    /**
+     * @return true if the record at the given offset, logged before the
+     *         checkpoint, may not be on disk according to its dirty page
+     *         table
+     */
+    private static boolean isUnwritten(Map<PageId, Long> dirty, PageId pid, long offset) {
+        Long firstUpdate = dirty.get(pid);
+        return firstUpdate != null && firstUpdate <= offset;
+    }
+
+    /** @return the redo partition that owns pid */
+    private static RedoPartition partitionOf(RedoPartition[] partitions, PageId pid) {
+        return partitions[Math.floorMod(pid.hashCode(), partitions.length)];
+    }
+
+    /** Waits for a redo partition to finish, rethrowing its failure. */
+    private static void await(Future<Void> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for redo");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("redo failed", e.getCause());
+        }
+    }
+
+    /**
+     * An UPDATE or CLR record to redo, with the update of the same
+     * transaction on the page that must be undone first, if any.
+     */
+    private static final class RedoStep {
+        static final RedoStep END = new RedoStep(null, null);
+
+        final LogRecord record;
+        final LogRecord revert;
+
+        RedoStep(LogRecord record, LogRecord revert) {
+            this.record = record;
+            this.revert = revert;
+        }
+    }
+
+    /**
+     * Redoes the records of the pages that hash to it on a thread of its
+     * own, in the order the log scan hands them over, and writes the
+     * resulting images once the scan ends. Holds no lock; the recovering
+     * thread holds the buffer pool lock and this on its behalf.
+     */
+    private static final class RedoPartition implements Callable<Void> {
+        private final BlockingQueue<RedoStep> steps = new ArrayBlockingQueue<>(REDO_QUEUE_SIZE);
+        // images of the pages as redo leaves them
+        private final Map<PageId, byte[]> images = new HashMap<>();
+        private final Map<PageId, PageType> pageTypes = new HashMap<>();
+
+        /** Hands over the next step, waiting while the queue is full. */
+        void add(RedoStep step) throws IOException {
+            try {
+                steps.put(step);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while handing over redo");
+            }
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Exception failure = null;
+            RedoStep step;
+            while ((step = steps.take()) != RedoStep.END) {
+                if (failure != null) {
+                    // keep draining, so the scan is never blocked
+                    continue;
+                }
+                try {
+                    redo(step);
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            install();
+            return null;
+        }
+
+        private void redo(RedoStep step) throws IOException {
+            LogRecord r = step.record;
+            if (r.type == CLR_RECORD) {
+                images.put(r.image.getId(), r.image.getPageData());
+                pageTypes.put(r.image.getId(), PageType.of(r.image));
+                return;
+            }
+            PageId pid = r.delta.getPageId();
+            byte[] image = images.get(pid);
+            if (image == null) {
+                image = readImage(pid, r.delta.getPageSize());
+                images.put(pid, image);
+                pageTypes.put(pid, r.delta.getPageType());
+            }
+            if (step.revert != null) {
+                step.revert.delta.undo(image);
+            }
+            r.delta.redo(image);
+        }
+
+        /** Writes the redone pages table by table and drops cached copies. */
+        private void install() throws IOException {
+            Map<Integer, List<Page>> byTable = new HashMap<>();
+            for (Map.Entry<PageId, byte[]> e : images.entrySet()) {
+                PageId pid = e.getKey();
+                byTable.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>())
+                       .add(pageTypes.get(pid).newPage(pid, e.getValue()));
+            }
+            for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+                DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+                file.writePages(e.getValue());
+                file.force();
+                for (Page p : e.getValue()) {
+                    Database.getBufferPool().discardPage(p.getId());
+                }
+            }
+        }
+    }
+
+    /** Appends the next records at the given offset; requires this. */
+    private void resumeAppending(long offset) {
+        currentOffset = offset;
+        bufferStart = offset;
+        buffer.clear();
+    }
+
+    /** A log record read back by {@link #readRecord}. */
+    private static class LogRecord {
+        int type;
+        long tid;
+        long offset;
+        // UPDATE records only
+        PageDelta delta;
+        // CLR records only: the image the undo restored
+        Page image;
+        // CHECKPOINT records only: first record of each active transaction
+        Map<Long, Long> active;
+        // CHECKPOINT records only: oldest unwritten update of each dirty page
+        Map<PageId, Long> dirty;
+    }
+
+    /**
+     * Reads the segments sequentially from a given offset through a
+     * buffer, rather than with a system call per field. Used with this
+     * held.
+     */
+    private final class LogReader extends InputStream {
+        private final ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // offset of the byte after the contents of buf
+        private long next;
+        final DataInputStream in = new DataInputStream(this);
+
+        LogReader(long offset) {
+            this.next = offset;
+            buf.limit(0);
+        }
+
+        /** @return the offset of the next byte to read */
+        long offset() {
+            return next - buf.remaining();
+        }
+
+        private boolean fill() throws IOException {
+            if (buf.hasRemaining()) {
+                return true;
+            }
+            long index = next / segmentSize;
+            if (!segments.containsKey(index) && !segmentFile(index).exists()) {
+                return false;
+            }
+            long offset = next % segmentSize;
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), segmentSize - offset));
+            int n = segment(index).read(buf, offset);
+            buf.flip();
+            if (n <= 0) {
+                return false;
+            }
+            next += n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Reads the next record and moves past it.
+     *
+     * @return the record, or null at the end of the log or at a record
+     *         that was not completely written
+     */
+    private LogRecord readRecord(LogReader reader) throws IOException {
+        LogRecord r = new LogRecord();
+        r.offset = reader.offset();
+        DataInputStream in = reader.in;
+        try {
+            r.type = in.readInt();
+            r.tid = in.readLong();
+            switch (r.type) {
+            case UPDATE_RECORD:
+                r.delta = PageDelta.read(in);
+                break;
+            case CLR_RECORD:
+                r.image = readPageData(in);
+                break;
+            case CHECKPOINT_RECORD:
+                int numXactions = in.readInt();
+                r.active = new HashMap<>();
+                while (numXactions-- > 0) {
+                    long xid = in.readLong();
+                    r.active.put(xid, in.readLong());
+                }
+                int numPages = in.readInt();
+                r.dirty = new HashMap<>();
+                while (numPages-- > 0) {
+                    PageType type = PageType.read(in);
+                    PageId pid = type.readId(in);
+                    r.dirty.put(pid, in.readLong());
+                }
+                break;
+            }
+            in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        return r;
+    }
+
+    /**
+     * Tracks the updates of the transactions in pending that remain to be
+     * undone as the log is read forward.
+     */
+    private static void collectUndo(LogRecord r, Map<Long, Deque<LogRecord>> pending) {
+        Deque<LogRecord> updates = pending.get(r.tid);
+        if (updates == null) {
+            return;
+        }
+        if (r.type == UPDATE_RECORD) {
+            updates.push(r);
+        } else if (r.type == CLR_RECORD) {
+            updates.poll();
+        }
+    }
+
+    /**
+     * Undoes the given updates on disk, newest first, logging the restored
+     * image of the page in a CLR ahead of each. Requires the buffer pool
+     * lock and this.
+     */
+    private void undo(Map<Long, Deque<LogRecord>> pending) throws IOException {
+        PriorityQueue<LogRecord> updates = new PriorityQueue<>(
+                Comparator.comparingLong((LogRecord r) -> r.offset).reversed());
+        for (Deque<LogRecord> d : pending.values()) {
+            updates.addAll(d);
+        }
+        while (!updates.isEmpty()) {
+            LogRecord r = updates.poll();
+            PageId pid = r.delta.getPageId();
+            byte[] image = readImage(pid, r.delta.getPageSize());
+            r.delta.undo(image);
+            Page restored = r.delta.getPageType().newPage(pid, image);
+            preAppend();
+            out.writeInt(CLR_RECORD);
+            out.writeLong(r.tid);
+            writePageData(out, restored);
+            out.writeLong(currentOffset);
+            currentOffset = position();
+            installPage(restored);
+        }
+    }
+
+    /**
+     * @return the image of a page on disk, or an empty image if the page
+     *         was never written
+     */
+    private static byte[] readImage(PageId pid, int pageSize) {
+        try {
+            return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid).getPageData();
+        } catch (IllegalArgumentException e) {
+            return new byte[pageSize];
+        }
+    }
+
+    /** Writes a page image durably and drops the cached copy of the page. */
+    private void installPage(Page p) throws IOException {
+        PageId pid = p.getId();
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        file.writePage(p);
+        // a later checkpoint may truncate the records that produced it
+        file.force();
+        Database.getBufferPool().discardPage(pid);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
+        synchronized (this) {
+            flushBuffer();
+            if (raf.length() < LONG_SIZE) {
+                System.out.println("empty log");
+                return;
+            }
+            long start = oldestNeededRecord();
+            System.out.println("checkpoint at " + checkpointOffset);
+            String[] names = {"?", "ABORT", "COMMIT", "UPDATE", "BEGIN", "CHECKPOINT", "CLR"};
+            LogReader reader = new LogReader(Math.max(start, 0));
+            LogRecord r;
+            while ((r = readRecord(reader)) != null) {
+                String name = r.type > 0 && r.type < names.length ? names[r.type] : "?";
+                StringBuilder sb = new StringBuilder();
+                sb.append(r.offset).append(": ").append(name).append(" tid ").append(r.tid);
+                if (r.delta != null) {
+                    sb.append(" page ").append(r.delta.getPageId())
+                      .append(" changed bytes ").append(r.delta.getChangedBytes());
+                }
+                if (r.image != null) {
+                    sb.append(" page ").append(r.image.getId());
+                }
+                if (r.active != null) {
+                    sb.append(" active ").append(r.active)
+                      .append(" dirty ").append(r.dirty);
+                }
+                System.out.println(sb);
+            }
+        }
+    }
+
+    /**
+     * Wait until the records up to the given LSN are on disk. Returns at
+     * once, without taking the LogFile lock, if they already are.
+     */
+    public void force(long lsn) throws IOException {
+        synchronized (forceLock) {
+            if (durableRecords >= lsn) {
+                return;
+            }
+        }
+        synchronized (this) {
+            flushBuffer();
+        }
+        awaitDurable(lsn);
+    }
+
+    /** Wait until all records appended so far are on disk. */
+    public void force() throws IOException {
+        long record;
+        synchronized (this) {
+            record = totalRecords;
+            flushBuffer();
+        }
+        awaitDurable(record);
+    }
+
+    /**
+     * Waits until the records up to the given sequence number are on disk,
+     * forcing the log as the leader of a group commit if no force is under
+     * way. Must not be called with forceLock held; may be called with the
+     * LogFile lock held, since leaders do not take it.
+     */
+    private void awaitDurable(long record) throws IOException {
+        long delay;
+        synchronized (forceLock) {
+            commitCount++;
+            requestedRecords = Math.max(requestedRecords, record);
+            while (durableRecords < record && forcing) {
+                try {
+                    forceLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for the log");
+                }
+            }
+            if (durableRecords >= record) {
+                return;
+            }
+            forcing = true;
+            delay = groupCommitDelayNanos;
+        }
+        long target = record;
+        try {
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            Map<FileChannel, Long> written;
+            synchronized (forceLock) {
+                // waiters registered so far appended their records before
+                // registering, so this force covers them
+                target = requestedRecords;
+                written = new HashMap<>(unforced);
+                unforced.clear();
+            }
+            try {
+                for (Map.Entry<FileChannel, Long> e : written.entrySet()) {
+                    force(e.getKey(), e.getValue());
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (forceLock) {
+                    unforced.putAll(written);
+                }
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            releaseChannel(-1);
+            throw e;
+        }
+        synchronized (forceLock) {
+            syncCount++;
+        }
+        releaseChannel(target);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /**
+     * Forces a segment written since it was last forced. A segment deleted
+     * by truncation meanwhile holds nothing that is needed; a channel closed
+     * by an interrupt of another thread is forced through a fresh one.
+     */
+    private void force(FileChannel ch, long index) throws IOException {
+        try {
+            ch.force(true);
+        } catch (ClosedByInterruptException e) {
+            // this thread was interrupted; keep the flag for its caller
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ClosedChannelException e) {
+            synchronized (forceLock) {
+                if (truncated.contains(ch)) {
+                    return;
+                }
+            }
+            try (FileChannel fresh = FileChannel.open(segmentFile(index).toPath(),
+                    StandardOpenOption.WRITE)) {
+                fresh.force(true);
+            }
+        }
+    }
+
+    /**
+     * Ends a force and wakes up the waiters.
+     *
+     * @param durable the sequence number now known to be on disk, or -1
+     */
+    private void releaseChannel(long durable) {
+        synchronized (forceLock) {
+            durableRecords = Math.max(durableRecords, durable);
+            forcing = false;
+            forceLock.notifyAll();
+        }
     }
 
 }
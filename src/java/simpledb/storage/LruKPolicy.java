@@ -0,0 +1,104 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page whose
+ * K-th most recent access lies furthest in the past; pages with fewer than K
+ * recorded accesses count as infinitely old and are evicted first, oldest
+ * last access first. This keeps pages touched once by a scan from pushing out
+ * pages that are re-referenced by point lookups.
+ * <p>
+ * The access history of evicted pages is retained for a bounded number of
+ * pages so that a page which is re-read shortly after eviction still counts
+ * its earlier references.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int retainedHistory;
+    private long clock;
+
+    /** Last k access times of every resident page, most recent first. */
+    private final Map<PageId, long[]> history;
+    private final Set<PageId> resident;
+    /** History of pages that already left the pool, in eviction order. */
+    private final LinkedHashMap<PageId, long[]> retired;
+
+    /**
+     * @param numPages the number of pages the policy should expect to track
+     * @param k the number of references remembered per page
+     */
+    public LruKPolicy(int numPages, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.retainedHistory = Math.max(numPages, 1);
+        this.clock = 0;
+        this.history = new HashMap<>();
+        this.resident = new HashSet<>();
+        this.retired = new LinkedHashMap<>();
+    }
+
+    public void recordAccess(PageId pid) {
+        long[] times = history.get(pid);
+        if (times == null) {
+            times = retired.remove(pid);
+            if (times == null) {
+                times = new long[k];
+            }
+            history.put(pid, times);
+            resident.add(pid);
+        }
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+    }
+
+    public void remove(PageId pid) {
+        if (!resident.remove(pid)) {
+            return;
+        }
+        retired.put(pid, history.remove(pid));
+        if (retired.size() > retainedHistory) {
+            Iterator<PageId> oldest = retired.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    public void discard(PageId pid) {
+        if (resident.remove(pid)) {
+            history.remove(pid);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (PageId pid : resident) {
+            if (!evictable.test(pid)) {
+                continue;
+            }
+            long[] times = history.get(pid);
+            // a missing k-th reference is stored as 0, i.e. infinitely old
+            long kth = times[k - 1];
+            long last = times[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                victim = pid;
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedHeapFile is a HeapFile for read-mostly tables that reads pages from a
+ * memory mapping of the data file instead of with read calls. Reading a page
+ * copies its bytes out of the mapping without a system call; caching is left
+ * to the operating system's page cache, which can hold far more of a large
+ * table than the BufferPool. Pages are copied rather than parsed from the
+ * mapping itself, since writes to the file change the mapped bytes and a
+ * loaded page must never change underneath its readers.
+ * <p>
+ * The mapping covers the file as it was when the mapping was made. A request
+ * for a page past its end (for example after an insert extended the file)
+ * remaps the whole file first. Files larger than a single mapping can address
+ * fall back to ordinary reads for the pages beyond it.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    // guarded by this
+    private MappedByteBuffer mapping;
+    private long mappedLength;
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.mapping = null;
+        this.mappedLength = 0;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof HeapPageId)) {
+            throw new IllegalArgumentException("PageId should be an instance of HeapPageId");
+        }
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pid.getPageNumber() * pageSize;
+        if (offset + pageSize > Integer.MAX_VALUE) {
+            return super.readPage(pid);
+        }
+
+        ByteBuffer page;
+        try {
+            page = pageSlice((int) offset, pageSize);
+        } catch (IOException e) {
+            throw new RuntimeException("could not map page " + pid.getPageNumber(), e);
+        }
+        if (page == null) {
+            throw new IllegalArgumentException("page " + pid.getPageNumber() + " does not exist in this file");
+        }
+        byte[] data = new byte[pageSize];
+        page.get(data);
+        return new HeapPage((HeapPageId) pid, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Returns a view of the mapping covering one page, remapping the file if
+     * the page lies past the current mapping.
+     *
+     * @return the page, or null if the file is too short to contain it
+     */
+    private synchronized ByteBuffer pageSlice(int offset, int pageSize) throws IOException {
+        if (offset + pageSize > mappedLength) {
+            remap();
+            if (offset + pageSize > mappedLength) {
+                return null;
+            }
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.position(offset);
+        view.limit(offset + pageSize);
+        return view.slice();
+    }
+
+    private void remap() throws IOException {
+        FileChannel ch = getChannel();
+        long length = Math.min(ch.size(), Integer.MAX_VALUE);
+        mapping = ch.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        mappedLength = length;
+    }
+}
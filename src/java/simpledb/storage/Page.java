@@ -58,4 +58,18 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Return the LSN of the last log record that updated this page, or 0 if
+     * the page has not been logged since it was read. The log must be
+     * durable up to this LSN before the page is written to disk.
+     *
+     * @see LogFile#force(long)
+     */
+    long getLSN();
+
+    /**
+     * Set the LSN of the log record that last updated this page.
+     */
+    void setLSN(long lsn);
 }
@@ -0,0 +1,169 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The change an UPDATE log record describes: the byte ranges in which two
+ * images of a page differ, each with its bytes before and after the change.
+ * For a HeapPage, inserting or deleting a tuple changes one header byte
+ * and the bytes of the tuple's slot, so the record holds a few dozen bytes
+ * instead of both images of the page.
+ * <p>
+ * Redo and undo write the stored bytes over a page image, so applying a
+ * delta twice is harmless. All deltas a transaction logs for a page are
+ * taken against the same before image, the page as last committed, so a
+ * later one does not repeat the ranges an earlier one changed and the
+ * transaction then changed back; see {@link LogFile#recover}.
+ */
+class PageDelta {
+
+    /**
+     * Ranges at most this many bytes apart are logged as one, since each
+     * range costs two ints.
+     */
+    static final int MERGE_GAP = 4;
+
+    private final PageType type;
+    private final PageId pid;
+    private final int pageSize;
+    private final int[] offsets;
+    private final int[] lengths;
+    // for each range, its bytes before and then after the change
+    private final byte[] data;
+
+    private PageDelta(PageType type, PageId pid, int pageSize,
+                      int[] offsets, int[] lengths, byte[] data) {
+        this.type = type;
+        this.pid = pid;
+        this.pageSize = pageSize;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.data = data;
+    }
+
+    /**
+     * @return the delta that turns before into after, two images of the
+     *         same page
+     */
+    static PageDelta diff(Page before, Page after) throws IOException {
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+        if (b.length != a.length) {
+            throw new IllegalArgumentException("images of " + after.getId() + " differ in size");
+        }
+        List<int[]> ranges = new ArrayList<>();
+        int changed = 0;
+        int i = 0;
+        while (i < a.length) {
+            if (a[i] == b[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // extend over changed bytes and short unchanged gaps
+            for (int j = end; j < a.length && j - end <= MERGE_GAP; j++) {
+                if (a[j] != b[j]) {
+                    end = j + 1;
+                }
+            }
+            ranges.add(new int[]{start, end});
+            changed += end - start;
+            i = end;
+        }
+        int[] offsets = new int[ranges.size()];
+        int[] lengths = new int[ranges.size()];
+        byte[] data = new byte[2 * changed];
+        int pos = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            int start = ranges.get(r)[0];
+            int len = ranges.get(r)[1] - start;
+            offsets[r] = start;
+            lengths[r] = len;
+            System.arraycopy(b, start, data, pos, len);
+            System.arraycopy(a, start, data, pos + len, len);
+            pos += 2 * len;
+        }
+        return new PageDelta(PageType.of(after), after.getId(), a.length, offsets, lengths, data);
+    }
+
+    PageId getPageId() {
+        return pid;
+    }
+
+    PageType getPageType() {
+        return type;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return the number of changed bytes */
+    int getChangedBytes() {
+        return data.length / 2;
+    }
+
+    /** Writes the changed bytes over a page image. */
+    void redo(byte[] image) {
+        apply(image, true);
+    }
+
+    /** Writes the bytes the change replaced over a page image. */
+    void undo(byte[] image) {
+        apply(image, false);
+    }
+
+    private void apply(byte[] image, boolean after) {
+        int pos = 0;
+        for (int r = 0; r < offsets.length; r++) {
+            int len = lengths[r];
+            System.arraycopy(data, after ? pos + len : pos, image, offsets[r], len);
+            pos += 2 * len;
+        }
+    }
+
+    /*
+     * A delta is serialized as
+     *   page type and id (see PageType#write)
+     *   page size
+     *   number of ranges
+     *   offset and length of each range
+     *   before bytes and after bytes of each range, optionally
+     *   compressed (see LogCompression)
+     * so that the bytes of all ranges are read in one piece.
+     */
+
+    void write(DataOutput out, boolean compress) throws IOException {
+        type.write(out, pid);
+        out.writeInt(pageSize);
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(lengths[r]);
+        }
+        LogCompression.write(out, data, compress);
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        PageType type = PageType.read(in);
+        PageId pid = type.readId(in);
+        int pageSize = in.readInt();
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        int changed = 0;
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            lengths[r] = in.readInt();
+            changed += lengths[r];
+        }
+        byte[] data = new byte[2 * changed];
+        LogCompression.read(in, data);
+        return new PageDelta(type, pid, pageSize, offsets, lengths, data);
+    }
+}
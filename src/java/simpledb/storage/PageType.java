@@ -0,0 +1,165 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A kind of page that appears in log records, with the factories that
+ * rebuild its pages and page ids when the log is read.
+ * <p>
+ * The page classes of this package are registered under a small tag, which
+ * log records hold in place of the names of the page and id classes, and
+ * are built by direct constructor calls. Any other page class is logged
+ * under {@link #BY_NAME} followed by both class names and is built through
+ * reflection, looking up its constructors once per class.
+ */
+final class PageType {
+
+    /** Tag of page classes that are logged by name. */
+    static final int BY_NAME = 0;
+    /** Tag of {@link HeapPage}. */
+    static final int HEAP = 1;
+
+    interface PageFactory {
+        Page create(PageId pid, byte[] data) throws IOException;
+    }
+
+    interface IdFactory {
+        PageId create(int[] args) throws IOException;
+    }
+
+    // indexed by tag
+    private static final PageType[] TAGGED = {
+        null,
+        new PageType(HEAP, HeapPage.class.getName(), HeapPageId.class.getName(),
+                     (pid, data) -> new HeapPage((HeapPageId) pid, data),
+                     args -> new HeapPageId(args[0], args[1])),
+    };
+
+    // types logged by name, keyed by page class name and id class name
+    private static final ConcurrentMap<String, PageType> BY_NAMES = new ConcurrentHashMap<>();
+
+    private final int tag;
+    private final String pageClassName;
+    private final String idClassName;
+    private final PageFactory pages;
+    private final IdFactory ids;
+
+    private PageType(int tag, String pageClassName, String idClassName, PageFactory pages, IdFactory ids) {
+        this.tag = tag;
+        this.pageClassName = pageClassName;
+        this.idClassName = idClassName;
+        this.pages = pages;
+        this.ids = ids;
+    }
+
+    /** @return the type of p */
+    static PageType of(Page p) throws IOException {
+        String name = p.getClass().getName();
+        for (int tag = 1; tag < TAGGED.length; tag++) {
+            if (TAGGED[tag].pageClassName.equals(name)) {
+                return TAGGED[tag];
+            }
+        }
+        return byName(name, p.getId().getClass().getName());
+    }
+
+    /** Reads the type written by {@link #write}. */
+    static PageType read(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == BY_NAME) {
+            String pageClassName = in.readUTF();
+            return byName(pageClassName, in.readUTF());
+        }
+        if (tag >= TAGGED.length) {
+            throw new IOException("unknown page type " + tag);
+        }
+        return TAGGED[tag];
+    }
+
+    private static PageType byName(String pageClassName, String idClassName) throws IOException {
+        String key = pageClassName + ' ' + idClassName;
+        PageType t = BY_NAMES.get(key);
+        if (t == null) {
+            t = reflect(pageClassName, idClassName);
+            BY_NAMES.putIfAbsent(key, t);
+        }
+        return t;
+    }
+
+    private static PageType reflect(String pageClassName, String idClassName) throws IOException {
+        try {
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : Class.forName(pageClassName).getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
+            if (pageConst == null) {
+                throw new IOException(pageClassName + " has no (PageId, byte[]) constructor");
+            }
+            Constructor<?> page = pageConst;
+            Constructor<?> id = Class.forName(idClassName).getDeclaredConstructors()[0];
+            return new PageType(BY_NAME, pageClassName, idClassName,
+                    (pid, data) -> (Page) construct(page, pid, data),
+                    args -> {
+                        Object[] boxed = new Object[args.length];
+                        for (int i = 0; i < args.length; i++) {
+                            boxed[i] = args[i];
+                        }
+                        return (PageId) construct(id, boxed);
+                    });
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Object construct(Constructor<?> c, Object... args) throws IOException {
+        try {
+            return c.newInstance(args);
+        } catch (InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the tag of this type, the class names if it has none, and pid.
+     */
+    void write(DataOutput out, PageId pid) throws IOException {
+        out.writeByte(tag);
+        if (tag == BY_NAME) {
+            out.writeUTF(pageClassName);
+            out.writeUTF(idClassName);
+        }
+        int[] args = pid.serialize();
+        out.writeByte(args.length);
+        for (int a : args) {
+            out.writeInt(a);
+        }
+    }
+
+    /** Reads the page id that follows the type written by {@link #write}. */
+    PageId readId(DataInput in) throws IOException {
+        int[] args = new int[in.readUnsignedByte()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readInt();
+        }
+        return ids.create(args);
+    }
+
+    /** @return a page of this type with the given contents */
+    Page newPage(PageId pid, byte[] data) throws IOException {
+        return pages.create(pid, data);
+    }
+
+    @Override
+    public String toString() {
+        return pageClassName;
+    }
+}
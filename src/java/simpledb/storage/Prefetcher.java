@@ -0,0 +1,190 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prefetcher detects sequential page access and reads the following pages
+ * in the background, so that a scan finds its next page resident instead of
+ * waiting for the read.
+ * <p>
+ * Accesses are grouped into streams: one per scan ring, since every ring
+ * belongs to one scan, and one per table for pages read without a ring. Once
+ * a stream has read {@link #TRIGGER_RUN} consecutive pages, the prefetcher
+ * keeps up to a window of pages ahead of it in flight. The window adapts to
+ * how useful prefetching has been: a sequential read that still missed means
+ * the stream is outrunning the window, which doubles, and a prefetched page
+ * that left the pool before it was used means the window is too large, which
+ * halves. Windows never exceed half a stream's ring, so prefetched pages do
+ * not push the ring's own pages out.
+ * <p>
+ * Background reads go through {@link BufferPool#prefetch}, which shares the
+ * single-flight loading of ordinary misses. Prefetching never reads past the
+ * end of a HeapFile and is skipped for other kinds of files.
+ */
+class Prefetcher {
+
+    /** Consecutive pages a stream must read before prefetching starts. */
+    static final int TRIGGER_RUN = 2;
+    static final int INITIAL_WINDOW = 4;
+    static final int MAX_WINDOW = 64;
+
+    // shared by all buffer pools; reads that do not fit in the queue are dropped
+    private static final ThreadPoolExecutor IO = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(4 * MAX_WINDOW), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-prefetch-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    static {
+        IO.allowCoreThreadTimeOut(true);
+    }
+
+    /** Sequential access state of one scan or table. */
+    static final class Stream {
+        int lastPage = -1;
+        int run;
+        int window = INITIAL_WINDOW;
+        // highest page number handed to the IO threads
+        int issuedTo = -1;
+    }
+
+    private final BufferPool pool;
+    // keyed by ScanRing or by table id
+    private final ConcurrentMap<Object, Stream> streams = new ConcurrentHashMap<>();
+    // prefetched pages that no getPage has asked for yet
+    private final ConcurrentMap<PageId, Stream> unused = new ConcurrentHashMap<>();
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder wasted = new LongAdder();
+    private volatile boolean enabled = true;
+
+    Prefetcher(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    long getIssuedCount() {
+        return issued.sum();
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getWasteCount() {
+        return wasted.sum();
+    }
+
+    /**
+     * Records a getPage call and issues prefetches if it continues a
+     * sequential stream.
+     *
+     * @param miss true if the caller had to read the page itself
+     */
+    void accessed(PageId pid, ScanRing ring, boolean miss) {
+        if (unused.remove(pid) != null) {
+            hits.increment();
+        }
+        if (!enabled || !(pid instanceof HeapPageId)) {
+            return;
+        }
+        int tableId = pid.getTableId();
+        int pgNo = pid.getPageNumber();
+        Stream s = streams.computeIfAbsent(ring != null ? ring : (Object) tableId, k -> new Stream());
+        int from;
+        int to;
+        synchronized (s) {
+            if (pgNo == s.lastPage) {
+                return;
+            }
+            if (pgNo != s.lastPage + 1) {
+                // a jump starts a new run; pages issued for the old one are
+                // accounted for when they are used or evicted
+                s.lastPage = pgNo;
+                s.run = 1;
+                s.issuedTo = pgNo;
+                return;
+            }
+            s.lastPage = pgNo;
+            s.run++;
+            if (s.run < TRIGGER_RUN) {
+                return;
+            }
+            if (miss && s.run > TRIGGER_RUN) {
+                s.window = Math.min(MAX_WINDOW, s.window * 2);
+            }
+            int window = s.window;
+            if (ring != null) {
+                window = Math.min(window, Math.max(1, ring.size() / 2));
+            }
+            from = Math.max(s.issuedTo + 1, pgNo + 1);
+            to = pgNo + window;
+            if (from > to) {
+                return;
+            }
+            s.issuedTo = to;
+        }
+
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            return;
+        }
+        to = Math.min(to, ((HeapFile) file).numPages() - 1);
+        for (int p = from; p <= to; p++) {
+            HeapPageId next = new HeapPageId(tableId, p);
+            IO.execute(() -> pool.prefetch(next, ring, s));
+        }
+    }
+
+    /**
+     * Called by the pool just before it starts a background read of pid.
+     */
+    void loading(PageId pid, Stream stream) {
+        unused.put(pid, stream);
+        issued.increment();
+    }
+
+    /**
+     * Called by the pool when a background read of pid failed.
+     */
+    void failed(PageId pid) {
+        unused.remove(pid);
+    }
+
+    /**
+     * Called by the pool when pid leaves the pool. A prefetched page that
+     * was never used shrinks the window of the stream that asked for it.
+     */
+    void evicted(PageId pid) {
+        Stream s = unused.remove(pid);
+        if (s != null) {
+            wasted.increment();
+            synchronized (s) {
+                s.window = Math.max(1, s.window / 2);
+            }
+        }
+    }
+
+    /**
+     * Called by the pool when a scan ring is released.
+     */
+    void ringReleased(ScanRing ring) {
+        streams.remove(ring);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool should give up
+ * when it needs a free frame.
+ * <p>
+ * The BufferPool reports every access to a resident page (including the
+ * access that brings a page in) and every page that is evicted or discarded, and asks
+ * the policy for a victim whenever the pool is full. Policies are not
+ * thread-safe; the BufferPool serializes all calls into a policy.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Name of the system property used to pick the policy of the default
+     * BufferPool, e.g. -Dsimpledb.storage.ReplacementPolicy=arc
+     */
+    String POLICY_PROPERTY = "simpledb.storage.ReplacementPolicy";
+
+    /** Policy used when no policy is requested explicitly. */
+    String DEFAULT_POLICY = "clock";
+
+    /**
+     * Record that the specified page was accessed. The first access after a
+     * page enters the pool is its admission.
+     *
+     * @param pid the page that was accessed
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Record that the specified page was evicted from the pool.
+     *
+     * @param pid the page that left the pool
+     */
+    void remove(PageId pid);
+
+    /**
+     * Record that the specified page was discarded from the pool, e.g.
+     * because it was deleted or rolled back. Unlike {@link #remove}, this
+     * keeps no history of the page, since its leaving says nothing about
+     * the workload.
+     *
+     * @param pid the page that left the pool
+     */
+    default void discard(PageId pid) {
+        remove(pid);
+    }
+
+    /**
+     * Choose the page that should be evicted next. The policy must only
+     * return pages it is tracking and for which evictable returns true; the
+     * page stays tracked until {@link #remove} is called for it.
+     *
+     * @param evictable test for pages that may currently be evicted
+     * @return the victim, or null if no tracked page is evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * Create a policy by name. Known names are "clock", "lru-k", "2q" and
+     * "arc" (case insensitive).
+     *
+     * @param name the policy name
+     * @param numPages capacity of the buffer pool the policy serves
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static ReplacementPolicy forName(String name, int numPages) {
+        switch (name.toLowerCase()) {
+            case "clock":
+                return new ClockPolicy(numPages);
+            case "lru-k":
+            case "lruk":
+                return new LruKPolicy(numPages, LruKPolicy.DEFAULT_K);
+            case "2q":
+                return new TwoQueuePolicy(numPages);
+            case "arc":
+                return new ArcPolicy(numPages);
+            default:
+                throw new IllegalArgumentException("unknown replacement policy " + name);
+        }
+    }
+
+    /**
+     * Create the policy named by the {@value #POLICY_PROPERTY} system
+     * property, or the {@value #DEFAULT_POLICY} policy if it is not set.
+     *
+     * @param numPages capacity of the buffer pool the policy serves
+     */
+    static ReplacementPolicy fromSystemProperty(int numPages) {
+        return forName(System.getProperty(POLICY_PROPERTY, DEFAULT_POLICY), numPages);
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * ScanRing is a small private set of buffer pool frames used by a bulk
+ * sequential read, similar to PostgreSQL's BAS_BULKREAD access strategy.
+ * <p>
+ * Pages that a scan reads into the pool through its ring are not handed to
+ * the pool's {@link ReplacementPolicy}; once the ring is full, the scan
+ * recycles the frame of the oldest page it read itself. A full scan of a
+ * large table therefore occupies at most {@link #size()} frames and leaves the
+ * pages that other queries depend on alone. A ring page that is requested
+ * without the ring is adopted by the pool and becomes an ordinary page.
+ * <p>
+ * Rings are obtained from {@link BufferPool#newScanRing} and must be given
+ * back with {@link BufferPool#releaseScanRing} when the scan is closed. All
+ * state is guarded by the owning BufferPool.
+ */
+public class ScanRing {
+
+    private final int size;
+    // pages read through this ring, oldest first
+    private final Deque<PageId> frames;
+    // set once the scan has given the ring back
+    private volatile boolean released;
+
+    ScanRing(int size) {
+        this.size = size;
+        this.frames = new ArrayDeque<>(size);
+    }
+
+    /** @return the maximum number of frames this ring occupies */
+    public int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    boolean isFull() {
+        return frames.size() >= size;
+    }
+
+    void add(PageId pid) {
+        frames.addLast(pid);
+    }
+
+    /** @return the oldest page read through this ring, or null if empty */
+    PageId pollOldest() {
+        return frames.pollFirst();
+    }
+
+    void remove(PageId pid) {
+        frames.remove(pid);
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    void setReleased() {
+        released = true;
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb.storage;
+
+import simpledb.transaction.Snapshot;
+import simpledb.transaction.SnapshotManager;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+
+/**
+ * The recent history of the slots of one HeapPage, kept for snapshot reads
+ * while multi-versioning is on. For each slot it records the id of the
+ * transaction that created the tuple in it and, once the slot has been
+ * emptied, the id of the transaction that deleted the tuple together with
+ * the deleted tuple itself. {@link SnapshotManager#SETTLED} stands for a
+ * transaction that every snapshot sees, such as one that committed before
+ * any running snapshot was taken.
+ * <p>
+ * Entries are stamped when a writer commits, by comparing the committed
+ * images of the page before and after its changes, so aborts leave no
+ * trace here. They are dropped by {@link #settle} once every snapshot sees
+ * them. An empty slot whose deleted tuple is still needed is not reused.
+ * <p>
+ * The history outlives the page object it is attached to: the buffer pool
+ * keeps it while the page is evicted and hands it to the restored page on
+ * abort. All methods synchronize on this.
+ */
+class SlotVersions {
+    private final int numSlots;
+    private final SnapshotManager snapshots;
+    // all null while there is no history
+    private long[] creators;
+    private long[] deleters;
+    private Tuple[] deleted;
+
+    SlotVersions(int numSlots, SnapshotManager snapshots) {
+        this.numSlots = numSlots;
+        this.snapshots = snapshots;
+    }
+
+    /** @return true if there is no history */
+    synchronized boolean isEmpty() {
+        return creators == null;
+    }
+
+    /**
+     * Records the changes tid made between two committed images of the page.
+     */
+    synchronized void stamp(TransactionId tid, HeapPage before, HeapPage after) {
+        long xid = tid.getId();
+        for (int i = 0; i < numSlots; i++) {
+            boolean was = before.isSlotUsed(i);
+            boolean is = after.isSlotUsed(i);
+            if (was == is) {
+                continue;
+            }
+            if (creators == null) {
+                creators = new long[numSlots];
+                deleters = new long[numSlots];
+                deleted = new Tuple[numSlots];
+                Arrays.fill(creators, SnapshotManager.SETTLED);
+                Arrays.fill(deleters, SnapshotManager.SETTLED);
+            }
+            if (is) {
+                creators[i] = xid;
+                deleters[i] = SnapshotManager.SETTLED;
+                deleted[i] = null;
+            } else {
+                deleters[i] = xid;
+                deleted[i] = before.getTuple(i);
+            }
+        }
+    }
+
+    /**
+     * @return true if the tuple in the given used slot was created by a
+     *         transaction s does not see
+     */
+    synchronized boolean isHidden(int slot, Snapshot s) {
+        return creators != null && !s.sees(creators[slot]);
+    }
+
+    /**
+     * @return the tuple the given empty slot held as of s, or null
+     */
+    synchronized Tuple deletedVersion(int slot, Snapshot s) {
+        if (deleted == null || deleted[slot] == null) {
+            return null;
+        }
+        return s.sees(creators[slot]) && !s.sees(deleters[slot]) ? deleted[slot] : null;
+    }
+
+    /**
+     * @return true if an empty slot holds no deleted tuple that a snapshot
+     *         may still need
+     */
+    synchronized boolean isReusable(int slot) {
+        return deleted == null || deleted[slot] == null || snapshots.isSettled(deleters[slot]);
+    }
+
+    /**
+     * Forgets the history of a slot that is about to be reused.
+     */
+    synchronized void reuse(int slot) {
+        if (creators != null) {
+            creators[slot] = SnapshotManager.SETTLED;
+            deleters[slot] = SnapshotManager.SETTLED;
+            deleted[slot] = null;
+        }
+    }
+
+    /**
+     * Drops the entries that every snapshot sees.
+     *
+     * @return true if no history is left
+     */
+    synchronized boolean settle() {
+        if (creators == null) {
+            return true;
+        }
+        boolean empty = true;
+        for (int i = 0; i < numSlots; i++) {
+            if (deleted[i] != null && snapshots.isSettled(deleters[i])) {
+                creators[i] = SnapshotManager.SETTLED;
+                deleters[i] = SnapshotManager.SETTLED;
+                deleted[i] = null;
+            } else if (snapshots.isSettled(creators[i])) {
+                creators[i] = SnapshotManager.SETTLED;
+            }
+            empty &= creators[i] == SnapshotManager.SETTLED && deleted[i] == null;
+        }
+        if (empty) {
+            creators = null;
+            deleters = null;
+            deleted = null;
+        }
+        return empty;
+    }
+}
@@ -0,0 +1,350 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of one schema in column
+ * order: every INT_TYPE field is an {@code int[]} and every STRING_TYPE field
+ * is a byte array with a fixed {@link Type#STRING_LEN} byte slice per row plus
+ * an {@code int[]} of string lengths. Rows are filled straight from page
+ * images, so no Field or Tuple objects are created until a caller asks for
+ * {@link #getTuple}.
+ * <p>
+ * A selection vector records which rows are still part of the batch. Filters
+ * narrow it in place instead of moving data; {@link #size()} and the row
+ * index passed to {@link #row(int)} refer to selected rows only, while the
+ * column vectors are indexed by physical row.
+ * <p>
+ * Batches are reused: whoever fills a batch clears it first, and a caller
+ * that keeps rows beyond the next fill must copy them out.
+ *
+ * @see simpledb.execution.BatchOpIterator
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+
+    // one vector per field; the vectors of the other type, and all vectors
+    // of fields that are not loaded, are null
+    private final int[][] ints;
+    private final byte[][] strings;
+    private final int[][] stringLengths;
+
+    // where each row came from; pageIds[row] is null for rows without one
+    private final PageId[] pageIds;
+    private final int[] slots;
+
+    private int rowCount;
+    // selected rows, in order; only meaningful once filtered is true
+    private final int[] selection;
+    private int selected;
+    private boolean filtered;
+
+    /**
+     * Creates a batch of {@link #DEFAULT_CAPACITY} rows.
+     *
+     * @param td the schema of the rows in this batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a batch.
+     *
+     * @param td the schema of the rows in this batch
+     * @param capacity the maximum number of rows, at least 1
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, capacity, null);
+    }
+
+    /**
+     * Creates a batch that only holds some of the fields of its schema. Rows
+     * added to it skip the other fields, which cannot be read back.
+     *
+     * @param td the schema of the rows in this batch
+     * @param capacity the maximum number of rows, at least 1
+     * @param loaded which fields to keep, indexed like td; null keeps all
+     */
+    public TupleBatch(TupleDesc td, int capacity, boolean[] loaded) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("batch capacity must be positive");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.strings = new byte[n][];
+        this.stringLengths = new int[n][];
+        for (int j = 0; j < n; j++) {
+            if (loaded != null && !loaded[j]) {
+                continue;
+            }
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                ints[j] = new int[capacity];
+            } else {
+                strings[j] = new byte[capacity * Type.STRING_LEN];
+                stringLengths[j] = new int[capacity];
+            }
+        }
+        this.pageIds = new PageId[capacity];
+        this.slots = new int[capacity];
+        this.selection = new int[capacity];
+        clear();
+    }
+
+    /**
+     * @return the schema of the rows in this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows in this batch
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes all rows and resets the selection vector.
+     */
+    public void clear() {
+        rowCount = 0;
+        selected = 0;
+        filtered = false;
+    }
+
+    /**
+     * @return the number of rows that have been added, selected or not
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return filtered ? selected : rowCount;
+    }
+
+    /**
+     * @return true if no row is selected
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return rowCount == capacity;
+    }
+
+    /**
+     * Maps the i-th selected row to its physical row, which indexes the
+     * column vectors.
+     */
+    public int row(int i) {
+        if (i < 0 || i >= size()) {
+            throw new NoSuchElementException("row " + i + " is not selected");
+        }
+        return filtered ? selection[i] : i;
+    }
+
+    /**
+     * Returns the selection vector: the first {@link #size()} entries are the
+     * physical selected rows in ascending order. A filter may overwrite those
+     * entries with the rows it keeps and then call {@link #select(int)}.
+     */
+    public int[] selectionVector() {
+        if (!filtered) {
+            for (int i = 0; i < rowCount; i++) {
+                selection[i] = i;
+            }
+            selected = rowCount;
+            filtered = true;
+        }
+        return selection;
+    }
+
+    /**
+     * Keeps the first count entries of the selection vector as the selected
+     * rows.
+     */
+    public void select(int count) {
+        if (count < 0 || count > size()) {
+            throw new IllegalArgumentException("cannot select " + count + " of " + size() + " rows");
+        }
+        selectionVector();
+        selected = count;
+    }
+
+    /**
+     * @return the vector of the given INT_TYPE field, indexed by physical row
+     */
+    public int[] getIntColumn(int field) {
+        int[] col = ints[field];
+        if (col == null) {
+            throw new IllegalArgumentException("field " + field + " is not a loaded int field");
+        }
+        return col;
+    }
+
+    /**
+     * @return the bytes of the given STRING_TYPE field; physical row r starts
+     *         at {@code r * Type.STRING_LEN}
+     */
+    public byte[] getStringColumn(int field) {
+        byte[] col = strings[field];
+        if (col == null) {
+            throw new IllegalArgumentException("field " + field + " is not a loaded string field");
+        }
+        return col;
+    }
+
+    /**
+     * @return the string lengths of the given STRING_TYPE field, indexed by
+     *         physical row
+     */
+    public int[] getStringLengths(int field) {
+        getStringColumn(field);
+        return stringLengths[field];
+    }
+
+    /**
+     * @return the value of an INT_TYPE field in the given physical row
+     */
+    public int getInt(int field, int row) {
+        return getIntColumn(field)[row];
+    }
+
+    /**
+     * @return the value of a STRING_TYPE field in the given physical row
+     */
+    public String getString(int field, int row) {
+        return new String(getStringColumn(field), row * Type.STRING_LEN, stringLengths[field][row]);
+    }
+
+    /**
+     * @return the value of a field in the given physical row
+     */
+    public Field getField(int field, int row) {
+        if (ints[field] != null) {
+            return new IntField(ints[field][row]);
+        }
+        return new StringField(getString(field, row), Type.STRING_LEN);
+    }
+
+    /**
+     * Materializes the i-th selected row. The tuple carries the RecordId of
+     * the slot it was read from, if any.
+     */
+    public Tuple getTuple(int i) {
+        int row = row(i);
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, getField(j, row));
+        }
+        setRecordId(t, row);
+        return t;
+    }
+
+    /**
+     * Materializes some fields of the i-th selected row. The tuple carries
+     * the RecordId of the slot the row was read from, if any.
+     *
+     * @param fields the fields to copy into the tuple, in order
+     * @param projected the schema of the tuple, {@code td.project(fields)}
+     */
+    public Tuple getTuple(int i, int[] fields, TupleDesc projected) {
+        int row = row(i);
+        Tuple t = new Tuple(projected);
+        for (int j = 0; j < fields.length; j++) {
+            t.setField(j, getField(fields[j], row));
+        }
+        setRecordId(t, row);
+        return t;
+    }
+
+    private void setRecordId(Tuple t, int row) {
+        if (pageIds[row] != null) {
+            t.setRecordId(new RecordId(pageIds[row], slots[row]));
+        }
+    }
+
+    /**
+     * Appends a row holding the fields of t. Rows cannot be added once the
+     * batch has been filtered.
+     */
+    public void append(Tuple t) {
+        int row = nextRow();
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (ints[j] != null) {
+                ints[j][row] = ((IntField) f).getValue();
+            } else if (strings[j] != null) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                int base = row * Type.STRING_LEN;
+                // same encoding as StringField.serialize
+                for (int k = 0; k < len; k++) {
+                    strings[j][base + k] = (byte) s.charAt(k);
+                }
+                stringLengths[j][row] = len;
+            }
+        }
+        RecordId rid = t.getRecordId();
+        pageIds[row] = rid == null ? null : rid.getPageId();
+        slots[row] = rid == null ? 0 : rid.getTupleNumber();
+        rowCount++;
+    }
+
+    /**
+     * Appends a row decoded from a serialized tuple.
+     *
+     * @param src the page image; its position is changed
+     * @param offset offset of the tuple in src
+     * @param fieldOffsets offset of each field within the tuple
+     * @param pid the page the tuple is stored on
+     * @param slot the slot the tuple is stored in
+     */
+    void appendSerialized(ByteBuffer src, int offset, int[] fieldOffsets, PageId pid, int slot) {
+        int row = nextRow();
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            int at = offset + fieldOffsets[j];
+            if (ints[j] != null) {
+                ints[j][row] = src.getInt(at);
+            } else if (strings[j] != null) {
+                int len = src.getInt(at);
+                src.position(at + 4);
+                src.get(strings[j], row * Type.STRING_LEN, len);
+                stringLengths[j][row] = len;
+            }
+        }
+        pageIds[row] = pid;
+        slots[row] = slot;
+        rowCount++;
+    }
+
+    private int nextRow() {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        if (filtered) {
+            throw new IllegalStateException("cannot add rows to a filtered batch");
+        }
+        return rowCount;
+    }
+}
@@ -216,6 +216,26 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(mergedTypes, mergedFieldNames);
     }
 
+    /**
+     * Create a TupleDesc holding the given fields of this one, in the given
+     * order.
+     *
+     * @param fields
+     *            indexes of the fields to keep; each must be a valid index
+     * @return the new TupleDesc
+     * @throws NoSuchElementException
+     *             if an index is not a valid field reference.
+     */
+    public TupleDesc project(int[] fields) {
+        Type[] projectedTypes = new Type[fields.length];
+        String[] projectedFieldNames = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            projectedTypes[i] = getFieldType(fields[i]);
+            projectedFieldNames[i] = getFieldName(fields[i]);
+        }
+        return new TupleDesc(projectedTypes, projectedFieldNames);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
@@ -0,0 +1,91 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.Predicate;
+
+/**
+ * 2Q replacement (Johnson and Shasha). Newly admitted pages enter a FIFO
+ * queue (A1in); when they are evicted from it only their ids are remembered
+ * in a ghost queue (A1out). A page that is referenced again while its id is
+ * in A1out is promoted to the main LRU queue (Am). Pages that are read once,
+ * as in a sequential scan, therefore never displace the hot pages in Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int maxIn;
+    private final int maxOut;
+
+    // iteration order of the sets is oldest first
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+
+    /**
+     * @param numPages the number of pages the policy should expect to track
+     */
+    public TwoQueuePolicy(int numPages) {
+        // sizes recommended in the paper: Kin = 25%, Kout = 50% of the pool
+        this.maxIn = Math.max(numPages / 4, 1);
+        this.maxOut = Math.max(numPages / 2, 1);
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+    }
+
+    public void recordAccess(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        } else if (a1in.contains(pid)) {
+            // correlated references while in A1in do not count
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public void remove(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > maxOut) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public void discard(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim;
+        if (a1in.size() > maxIn || am.isEmpty()) {
+            victim = firstEvictable(a1in, evictable);
+            if (victim == null) {
+                victim = firstEvictable(am, evictable);
+            }
+        } else {
+            victim = firstEvictable(am, evictable);
+            if (victim == null) {
+                victim = firstEvictable(a1in, evictable);
+            }
+        }
+        return victim;
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        for (PageId pid : queue) {
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,442 @@
+package simpledb.transaction;
+
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * LockManager grants locks on tables, pages and records to transactions.
+ * Page locks requested with {@link Permissions} are shared for READ_ONLY,
+ * which any number of transactions may hold at once, and exclusive for
+ * READ_WRITE. Record-level locking adds the intention modes of
+ * {@link LockMode}: a transaction that locks single records first takes IS
+ * or IX locks on the table ({@link #tableResource}) and the page, so that
+ * writers of different records of one page proceed in parallel while a
+ * transaction that locks the whole page still excludes them. A transaction
+ * that requests a mode on a resource it already holds upgrades its lock to
+ * the supremum of both modes. Locks are held until they are released
+ * explicitly, normally all at once when the transaction completes.
+ * <p>
+ * The lock table is a concurrent hash map of lock entries keyed by resource,
+ * and each entry is its own latch, so requests for different resources
+ * never contend. Waiting requests wait on the entry of their resource.
+ * Entries are removed once no transaction holds or waits for them. Every
+ * transaction also has a set of the resources it has locked, so releasing
+ * its locks costs time proportional to the number of locks it holds.
+ * <p>
+ * Deadlocks are detected with a waits-for graph. Its edges are not stored:
+ * a blocked transaction records which entry it waits for, and it waits for
+ * the current holders of that entry whose locks conflict with its request.
+ * Whenever a transaction blocks, a search from it over the blocked
+ * transactions looks for a path back to it. Only blocked transactions are
+ * visited, and no latch is held during the search. A cycle aborts its
+ * youngest transaction, the one with the largest {@link TransactionId#getId}:
+ * either the requester, whose request then throws, or a transaction that is
+ * already waiting, which is woken up and throws instead.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /**
+     * Interval at which blocked requests search for deadlocks again. A cycle
+     * is found when its last transaction blocks, so this is only a backstop.
+     */
+    static final long RECHECK_MILLIS = 1000;
+
+    /** Locks on one resource; its monitor guards all changes to its fields. */
+    private static final class LockEntry {
+        // mode each holder holds; read without the monitor by searches
+        final ConcurrentMap<TransactionId, LockMode> holders = new ConcurrentHashMap<>(4);
+        int waiters;
+        // set once the entry has left the table; requests must look again
+        boolean retired;
+
+        boolean isFree() {
+            return holders.isEmpty() && waiters == 0;
+        }
+
+        /** @return the mode tid would hold after being granted mode */
+        LockMode target(TransactionId tid, LockMode mode) {
+            return mode.supremum(holders.get(tid));
+        }
+
+        boolean canGrant(TransactionId tid, LockMode mode) {
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (!h.getKey().equals(tid) && !mode.isCompatibleWith(h.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** A blocked request: an entry and the mode asked for. */
+    private static final class Wait {
+        final LockEntry entry;
+        final LockMode mode;
+
+        Wait(LockEntry entry, LockMode mode) {
+            this.entry = entry;
+            this.mode = mode;
+        }
+
+        /** Adds the transactions tid waits for to out. */
+        void blockers(TransactionId tid, Set<TransactionId> out) {
+            for (Map.Entry<TransactionId, LockMode> h : entry.holders.entrySet()) {
+                if (!h.getKey().equals(tid) && !mode.isCompatibleWith(h.getValue())) {
+                    out.add(h.getKey());
+                }
+            }
+        }
+    }
+
+    /** Lock resource of a whole table. */
+    private static final class TableResource {
+        final int tableId;
+
+        TableResource(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableResource && ((TableResource) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return tableId;
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    private final ConcurrentMap<Object, LockEntry> table = new ConcurrentHashMap<>();
+    // resources each transaction holds a lock on
+    private final ConcurrentMap<TransactionId, Set<Object>> held = new ConcurrentHashMap<>();
+    // requests each blocked transaction is waiting on; a transaction whose
+    // operators run on several threads can wait on several entries at once
+    private final ConcurrentMap<TransactionId, Set<Wait>> waiting = new ConcurrentHashMap<>();
+    // transactions chosen as deadlock victims that have not noticed yet
+    private final Set<TransactionId> doomed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @return the resource to lock for the whole table with the given id
+     */
+    public static Object tableResource(int tableId) {
+        return new TableResource(tableId);
+    }
+
+    /**
+     * Acquires a lock on pid for tid, waiting while other transactions hold
+     * conflicting locks. Returns immediately if tid already holds a lock at
+     * least as strong.
+     *
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if tid was chosen as the victim of
+     *         a deadlock; its cause is a {@link DeadlockException}
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        acquire(tid, pid, perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S);
+    }
+
+    /**
+     * Acquires a lock in the given mode on a table, page or record for tid,
+     * waiting while other transactions hold conflicting locks.
+     *
+     * @param resource a {@link #tableResource}, a PageId or a RecordId
+     * @throws TransactionAbortedException if tid was chosen as the victim of
+     *         a deadlock; its cause is a {@link DeadlockException}
+     */
+    public void acquire(TransactionId tid, Object resource, LockMode mode)
+            throws TransactionAbortedException {
+        while (true) {
+            LockEntry e = table.computeIfAbsent(resource, k -> new LockEntry());
+            LockMode target;
+            synchronized (e) {
+                if (e.retired) {
+                    continue;
+                }
+                target = e.target(tid, mode);
+                if (e.canGrant(tid, target)) {
+                    grant(e, tid, resource, target);
+                    return;
+                }
+                e.waiters++;
+            }
+            Wait w = new Wait(e, target);
+            waiting.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(w);
+            try {
+                await(w, tid, resource);
+                return;
+            } finally {
+                Set<Wait> waits = waiting.get(tid);
+                if (waits != null) {
+                    waits.remove(w);
+                    if (waits.isEmpty()) {
+                        waiting.remove(tid, waits);
+                    }
+                }
+                if (!waiting.containsKey(tid)) {
+                    // chosen as a victim only after the request was granted,
+                    // which broke the cycle; see resolveDeadlock
+                    doomed.remove(tid);
+                }
+                synchronized (e) {
+                    e.waiters--;
+                    retireIfFree(resource, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquires a lock like {@link #acquire(TransactionId, Object, LockMode)}
+     * if that is possible without waiting.
+     *
+     * @return true if the lock was granted
+     */
+    public boolean tryAcquire(TransactionId tid, Object resource, LockMode mode) {
+        while (true) {
+            LockEntry e = table.computeIfAbsent(resource, k -> new LockEntry());
+            synchronized (e) {
+                if (e.retired) {
+                    continue;
+                }
+                LockMode target = e.target(tid, mode);
+                if (e.canGrant(tid, target)) {
+                    grant(e, tid, resource, target);
+                    return true;
+                }
+                retireIfFree(resource, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Blocks until w can be granted, searching for a deadlock first and then
+     * again every {@link #RECHECK_MILLIS}.
+     */
+    private void await(Wait w, TransactionId tid, Object resource) throws TransactionAbortedException {
+        LockEntry e = w.entry;
+        while (true) {
+            resolveDeadlock(tid);
+            synchronized (e) {
+                long deadline = System.currentTimeMillis() + RECHECK_MILLIS;
+                while (true) {
+                    if (doomed.remove(tid)) {
+                        throw aborted();
+                    }
+                    // another thread of tid may have upgraded meanwhile
+                    LockMode target = e.target(tid, w.mode);
+                    if (e.canGrant(tid, target)) {
+                        grant(e, tid, resource, target);
+                        return;
+                    }
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        break;
+                    }
+                    try {
+                        e.wait(left);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new TransactionAbortedException();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Records a granted lock; requires e's monitor. */
+    private void grant(LockEntry e, TransactionId tid, Object resource, LockMode mode) {
+        e.holders.put(tid, mode);
+        held.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(resource);
+    }
+
+    private static TransactionAbortedException aborted() {
+        TransactionAbortedException ex = new TransactionAbortedException();
+        ex.initCause(new DeadlockException());
+        return ex;
+    }
+
+    /**
+     * Looks for a cycle through tid in the waits-for graph and aborts its
+     * youngest transaction. Must not be called with an entry's monitor held.
+     *
+     * @throws TransactionAbortedException if tid is the victim
+     */
+    private void resolveDeadlock(TransactionId tid) throws TransactionAbortedException {
+        TransactionId victim = findCycleVictim(tid);
+        if (victim == null) {
+            return;
+        }
+        if (victim.equals(tid)) {
+            throw aborted();
+        }
+        doomed.add(victim);
+        // the victim clears the flag once it stops waiting, so one of the
+        // two sees that its request was granted meanwhile
+        Set<Wait> waits = waiting.get(victim);
+        if (waits == null) {
+            doomed.remove(victim);
+        } else {
+            for (Wait vw : waits) {
+                synchronized (vw.entry) {
+                    vw.entry.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches the waits-for graph from start, following only transactions
+     * that are blocked themselves.
+     *
+     * @return the youngest transaction on a cycle through start, or null if
+     *         there is none
+     */
+    private TransactionId findCycleVictim(TransactionId start) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        Set<TransactionId> next = new HashSet<>();
+        parent.put(start, null);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            Set<Wait> waits = waiting.get(t);
+            if (waits == null || doomed.contains(t)) {
+                // running, or about to give up its locks
+                continue;
+            }
+            next.clear();
+            for (Wait w : waits) {
+                w.blockers(t, next);
+            }
+            for (TransactionId n : next) {
+                if (n.equals(start)) {
+                    return youngest(t, parent);
+                }
+                if (!parent.containsKey(n)) {
+                    parent.put(n, t);
+                    stack.push(n);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return the youngest transaction on the path from the root to t */
+    private static TransactionId youngest(TransactionId t, Map<TransactionId, TransactionId> parent) {
+        TransactionId victim = t;
+        for (TransactionId p = t; p != null; p = parent.get(p)) {
+            if (p.getId() > victim.getId()) {
+                victim = p;
+            }
+        }
+        return victim;
+    }
+
+    /** Drops e from the table once nobody uses it; requires e's monitor. */
+    private void retireIfFree(Object resource, LockEntry e) {
+        if (e.isFree()) {
+            e.retired = true;
+            table.remove(resource, e);
+        }
+    }
+
+    /**
+     * Releases the lock tid holds on a table, page or record, if any.
+     */
+    public void release(TransactionId tid, Object resource) {
+        Set<Object> resources = held.get(tid);
+        if (resources != null) {
+            resources.remove(resource);
+        }
+        unlock(tid, resource);
+    }
+
+    /**
+     * Releases every lock tid holds.
+     */
+    public void releaseAll(TransactionId tid) {
+        doomed.remove(tid);
+        Set<Object> resources = held.remove(tid);
+        if (resources == null) {
+            return;
+        }
+        for (Object resource : resources) {
+            unlock(tid, resource);
+        }
+    }
+
+    private void unlock(TransactionId tid, Object resource) {
+        LockEntry e = table.get(resource);
+        if (e == null) {
+            return;
+        }
+        synchronized (e) {
+            if (e.holders.remove(tid) != null) {
+                e.notifyAll();
+            }
+            retireIfFree(resource, e);
+        }
+    }
+
+    /**
+     * @return true if tid holds a lock in any mode on the resource
+     */
+    public boolean holdsLock(TransactionId tid, Object resource) {
+        Set<Object> resources = held.get(tid);
+        return resources != null && resources.contains(resource);
+    }
+
+    /**
+     * @return the mode of the lock tid holds on the resource, or null
+     */
+    public LockMode lockMode(TransactionId tid, Object resource) {
+        LockEntry e = table.get(resource);
+        return e == null ? null : e.holders.get(tid);
+    }
+
+    /**
+     * @return true if tid holds the exclusive lock on pid
+     */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        return lockMode(tid, pid) == LockMode.X;
+    }
+
+    /**
+     * @return the pages tid holds a lock on, in any mode; the set is a
+     *         snapshot
+     */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        Set<Object> resources = held.get(tid);
+        if (resources == null) {
+            return Collections.emptySet();
+        }
+        Set<PageId> pages = new HashSet<>();
+        for (Object r : resources) {
+            if (r instanceof PageId) {
+                pages.add((PageId) r);
+            }
+        }
+        return pages;
+    }
+}
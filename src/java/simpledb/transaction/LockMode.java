@@ -0,0 +1,52 @@
+package simpledb.transaction;
+
+/**
+ * Modes of the locks granted by {@link LockManager}. Shared and exclusive
+ * locks protect the resource itself; the intention modes are taken on a
+ * table or page to announce shared (IS) or exclusive (IX) locks on records
+ * within it, and SIX combines a shared lock with the intention to write some
+ * of the records.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    // COMPATIBLE[a][b] is true if a lock in mode a can be held while another
+    // transaction holds one in mode b
+    private static final boolean[][] COMPATIBLE = {
+            //        IS     IX     S      SIX    X
+            /* IS */ {true,  true,  true,  true,  false},
+            /* IX */ {true,  true,  false, false, false},
+            /* S  */ {true,  false, true,  false, false},
+            /* SIX*/ {true,  false, false, false, false},
+            /* X  */ {false, false, false, false, false},
+    };
+
+    /**
+     * @return true if this mode can be granted while another transaction
+     *         holds other
+     */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return the weakest mode that grants everything this mode and other
+     *         grant; used when a transaction upgrades a lock it holds
+     */
+    public LockMode supremum(LockMode other) {
+        if (this == other || other == null) {
+            return this;
+        }
+        if (this == X || other == X) {
+            return X;
+        }
+        if (this == IS) {
+            return other;
+        }
+        if (other == IS) {
+            return this;
+        }
+        // any two of IX, S and SIX
+        return SIX;
+    }
+}
@@ -0,0 +1,37 @@
+package simpledb.transaction;
+
+/**
+ * A snapshot fixes which committed transactions a reader sees: those that
+ * committed before the snapshot was taken, and the reader itself. Snapshots
+ * are taken and released by a {@link SnapshotManager}.
+ */
+public class Snapshot {
+    private final TransactionId tid;
+    private final long sequence;
+    private final SnapshotManager manager;
+
+    Snapshot(TransactionId tid, long sequence, SnapshotManager manager) {
+        this.tid = tid;
+        this.sequence = sequence;
+        this.manager = manager;
+    }
+
+    /** @return the transaction this snapshot belongs to */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the number of commits that had been published when the snapshot was taken */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param xid the id of a transaction that has committed or is committing,
+     *            or {@link SnapshotManager#SETTLED}
+     * @return true if the changes of that transaction are visible
+     */
+    public boolean sees(long xid) {
+        return manager.isVisible(xid, this);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb.transaction;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SnapshotManager hands out the snapshots of multi-version reads and keeps
+ * the order in which writing transactions committed.
+ * <p>
+ * Each commit of a writer is published with the next value of a commit
+ * clock, and a snapshot records the clock when it is taken; it sees the
+ * writers whose commit number is not larger. A committing writer first
+ * announces itself with {@link #beginCommit}, then stamps its id on the
+ * versions it created or deleted, and finally publishes its commit with
+ * {@link #commit}; until then no snapshot sees its stamps.
+ * <p>
+ * The horizon is the clock value of the oldest running snapshot, or the
+ * current clock if there is none. Every snapshot, including those taken
+ * later, sees the writers that committed at or before the horizon, so their
+ * commit numbers are forgotten and the history they left behind can be
+ * dropped (see {@link #isSettled}). The table of commit numbers therefore
+ * only holds the writers that committed while some snapshot was running.
+ */
+public class SnapshotManager {
+
+    /** Stands for a transaction whose changes every snapshot sees. */
+    public static final long SETTLED = -1;
+
+    // number of commits published; guarded by this
+    private long clock;
+    // commit number of each writer that committed after the horizon
+    private final ConcurrentMap<Long, Long> commitNumbers = new ConcurrentHashMap<>();
+    // keys of commitNumbers in commit order; guarded by this
+    private final Deque<Long> commitOrder = new ArrayDeque<>();
+    // writers that are stamping their changes and have not published yet
+    private final Set<Long> committing = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentMap<TransactionId, Snapshot> snapshots = new ConcurrentHashMap<>();
+    // number of running snapshots per clock value; guarded by this
+    private final TreeMap<Long, Integer> running = new TreeMap<>();
+    private volatile long horizon;
+
+    /**
+     * Returns the snapshot of tid, taking it now if tid has none yet.
+     */
+    public Snapshot getSnapshot(TransactionId tid) {
+        Snapshot s = snapshots.get(tid);
+        if (s != null) {
+            return s;
+        }
+        synchronized (this) {
+            s = snapshots.get(tid);
+            if (s == null) {
+                s = new Snapshot(tid, clock, this);
+                snapshots.put(tid, s);
+                running.merge(clock, 1, Integer::sum);
+                horizon = running.firstKey();
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Releases the snapshot of tid, if it has one.
+     *
+     * @return true if the horizon moved as a result
+     */
+    public synchronized boolean release(TransactionId tid) {
+        Snapshot s = snapshots.remove(tid);
+        if (s == null) {
+            return false;
+        }
+        running.computeIfPresent(s.getSequence(), (seq, n) -> n == 1 ? null : n - 1);
+        return advance();
+    }
+
+    /**
+     * Announces that tid is about to stamp its changes.
+     */
+    public void beginCommit(TransactionId tid) {
+        committing.add(tid.getId());
+    }
+
+    /**
+     * Publishes the commit of tid, making its stamps visible to snapshots
+     * taken from now on.
+     */
+    public synchronized void commit(TransactionId tid) {
+        long id = tid.getId();
+        commitNumbers.put(id, ++clock);
+        commitOrder.addLast(id);
+        committing.remove(id);
+        advance();
+    }
+
+    /** Recomputes the horizon and forgets commits before it; requires this. */
+    private boolean advance() {
+        long h = running.isEmpty() ? clock : running.firstKey();
+        boolean moved = h != horizon;
+        horizon = h;
+        while (!commitOrder.isEmpty() && commitNumbers.get(commitOrder.peekFirst()) <= h) {
+            commitNumbers.remove(commitOrder.pollFirst());
+        }
+        return moved;
+    }
+
+    /**
+     * @return true if the changes stamped with xid are visible to s
+     */
+    boolean isVisible(long xid, Snapshot s) {
+        if (xid == SETTLED || xid == s.getTransactionId().getId()) {
+            return true;
+        }
+        if (committing.contains(xid)) {
+            return false;
+        }
+        // commit numbers are published before the writer leaves committing,
+        // and only forgotten once they are at or before every snapshot
+        Long number = commitNumbers.get(xid);
+        return number == null || number <= s.getSequence();
+    }
+
+    /**
+     * @param xid the id a writer stamped on a version
+     * @return true if every snapshot, running or future, sees the changes
+     *         stamped with xid, so the history they replaced can be dropped
+     */
+    public boolean isSettled(long xid) {
+        if (xid == SETTLED) {
+            return true;
+        }
+        if (committing.contains(xid)) {
+            return false;
+        }
+        Long number = commitNumbers.get(xid);
+        return number == null || number <= horizon;
+    }
+}
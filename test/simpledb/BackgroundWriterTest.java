@@ -0,0 +1,184 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    /** Number of used slots of a page as stored on disk. */
+    private static int usedSlotsOnDisk(HeapFile table, int pgNo) {
+        return usedSlots((HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo)));
+    }
+
+    private static int usedSlots(HeapPage page) {
+        int used = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            used++;
+        }
+        return used;
+    }
+
+    private static void awaitWrites(BufferPool pool, long pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getPageWriteCount() < pages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("pages were not written", pool.getPageWriteCount() >= pages);
+    }
+
+    @Test public void commitIsWrittenInBackground() throws Exception {
+        BufferPool pool = Database.resetBufferPool(50);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        TransactionId tid = new TransactionId();
+        int rows = 1500;
+        for (int i = 0; i < rows; i++) {
+            pool.insertTuple(tid, table.getId(), TestUtil.createTupleList(2, new int[]{i, -i}).next());
+        }
+        int pages = table.numPages();
+        assertTrue(pages > 1);
+        assertEquals(0, usedSlotsOnDisk(table, 0));
+
+        pool.transactionComplete(tid, true);
+        awaitWrites(pool, pages);
+        int stored = 0;
+        for (int p = 0; p < pages; p++) {
+            stored += usedSlotsOnDisk(table, p);
+        }
+        assertEquals(rows, stored);
+        // the pages are adjacent, so one gathering write covers them
+        assertEquals(1, pool.getWriteCallCount());
+    }
+
+    @Test public void abortRestoresCommittedImage() throws Exception {
+        BufferPool pool = Database.resetBufferPool(50);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100, null, tuples);
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+
+        TransactionId committer = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(committer, pid, Permissions.READ_WRITE);
+        pool.deleteTuple(committer, page.getTuple(0));
+        pool.transactionComplete(committer, true);
+
+        TransactionId aborter = new TransactionId();
+        pool.deleteTuple(aborter, page.getTuple(1));
+        pool.insertTuple(aborter, table.getId(), TestUtil.createTupleList(2, new int[]{7, 7}).next());
+        pool.transactionComplete(aborter, false);
+
+        HeapPage restored = (HeapPage) pool.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertNull(restored.isDirty());
+        assertFalse(restored.isSlotUsed(0));
+        assertEquals(tuples.get(1), SystemTestUtil.tupleToList(restored.getTuple(1)));
+        assertEquals(99, usedSlots(restored));
+
+        pool.flushAllPages();
+        assertEquals(99, usedSlotsOnDisk(table, 0));
+    }
+
+    @Test public void committedPagesSurviveEviction() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4);
+        pool.setPrefetching(false);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        int pages = table.numPages();
+        HeapPageId first = new HeapPageId(table.getId(), 0);
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(tid, first, Permissions.READ_WRITE);
+        int slots = usedSlots(page);
+        pool.deleteTuple(tid, page.getTuple(0));
+        pool.transactionComplete(tid, true);
+
+        TransactionId reader = new TransactionId();
+        for (int p = 1; p < pages; p++) {
+            pool.getPage(reader, new HeapPageId(table.getId(), p), Permissions.READ_ONLY);
+        }
+        HeapPage reread = (HeapPage) pool.getPage(reader, first, Permissions.READ_ONLY);
+        assertEquals(slots - 1, usedSlots(reread));
+        awaitWrites(pool, 1);
+        assertEquals(slots - 1, usedSlotsOnDisk(table, 0));
+    }
+
+    @Test public void writtenPagesAreForced() throws Exception {
+        BufferPool pool = Database.resetBufferPool(50);
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        AtomicInteger forces = new AtomicInteger();
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2)) {
+            @Override
+            public void force() throws IOException {
+                forces.incrementAndGet();
+                super.force();
+            }
+        };
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        pool.deleteTuple(tid, page.getTuple(0));
+        pool.transactionComplete(tid, true);
+        pool.flushAllPages();
+        assertEquals(99, usedSlotsOnDisk(table, 0));
+        // a fuzzy checkpoint only trusts pages that are durable
+        assertTrue(forces.get() >= 1);
+    }
+
+    @Test public void failedWritesBackOffAndSurface() throws Exception {
+        BufferPool pool = Database.resetBufferPool(50);
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1 << 16, null, null);
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2)) {
+            @Override
+            public void force() throws IOException {
+                attempts.incrementAndGet();
+                if (failing.get()) {
+                    throw new IOException("disk unavailable");
+                }
+                super.force();
+            }
+        };
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        pool.deleteTuple(tid, page.getTuple(0));
+        pool.transactionComplete(tid, true);
+        Thread.sleep(1000);
+        // without backoff, a round would retry every 50 ms
+        assertTrue(attempts.get() >= 1);
+        assertTrue(attempts.get() <= 6);
+        try {
+            pool.flushAllPages();
+            fail("the failed write was not reported");
+        } catch (IOException expected) {
+        }
+
+        failing.set(false);
+        pool.flushAllPages();
+        assertEquals(99, usedSlotsOnDisk(table, 0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
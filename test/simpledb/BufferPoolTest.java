@@ -0,0 +1,188 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** Counts readPage calls and keeps each read busy for a while. */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger inRead = new AtomicInteger();
+        final AtomicInteger maxInRead = new AtomicInteger();
+        private final long delayMillis;
+
+        SlowHeapFile(File f, TupleDesc td) {
+            this(f, td, 50);
+        }
+
+        SlowHeapFile(File f, TupleDesc td, long delayMillis) {
+            super(f, td);
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            int now = inRead.incrementAndGet();
+            maxInRead.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ignored) {
+            }
+            inRead.decrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile table;
+
+    @Before public void createTable() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * 8, 1000, null, null);
+        table = new SlowHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Starts one thread per page number, all released at the same time, and
+     * returns the pages they read.
+     */
+    private List<Page> readConcurrently(BufferPool pool, int[] pageNumbers) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Page> pages = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int pgNo : pageNumbers) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    Page p = pool.getPage(new TransactionId(),
+                            new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY);
+                    synchronized (pages) {
+                        pages.add(p);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        return pages;
+    }
+
+    @Test public void concurrentMissesOnSamePageReadOnce() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4);
+        int[] same = new int[32];
+        List<Page> pages = readConcurrently(pool, same);
+
+        assertEquals(1, table.reads.get());
+        for (Page p : pages) {
+            assertSame(pages.get(0), p);
+        }
+        assertEquals(1, pool.getMissCount());
+        assertEquals(31, pool.getHitCount());
+    }
+
+    @Test public void missesOnDifferentPagesOverlap() throws Exception {
+        BufferPool pool = Database.resetBufferPool(8);
+        readConcurrently(pool, new int[]{0, 1, 2, 3, 4, 5, 6, 7});
+
+        assertEquals(8, table.reads.get());
+        assertTrue("reads were serialized", table.maxInRead.get() > 1);
+    }
+
+    @Test public void concurrentMissesRespectCapacity() throws Exception {
+        BufferPool pool = Database.resetBufferPool(3);
+        // read ahead would make pages resident without a counted miss
+        pool.setPrefetching(false);
+        int[] pages = new int[64];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = i % 8;
+        }
+        readConcurrently(pool, pages);
+
+        // every page is still readable and at most three are resident
+        long misses = pool.getMissCount();
+        for (int i = 0; i < 8; i++) {
+            pool.getPage(new TransactionId(), new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        }
+        int resident = 8 - (int) (pool.getMissCount() - misses);
+        assertTrue(resident <= 3);
+    }
+
+    /** Creates a table of the given number of pages with slow reads. */
+    private SlowHeapFile slowTable(int pages, long delayMillis, List<List<Integer>> tuples) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages, 1000, null, tuples);
+        SlowHeapFile t = new SlowHeapFile(f, Utility.getTupleDesc(1), delayMillis);
+        Database.getCatalog().addTable(t, SystemTestUtil.getUUID());
+        return t;
+    }
+
+    @Test public void sequentialScanIsReadAhead() throws Exception {
+        BufferPool pool = Database.resetBufferPool(100);
+        SlowHeapFile big = slowTable(64, 5, null);
+        SeqScan scan = new SeqScan(new TransactionId(), big.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+
+        assertEquals(64, big.reads.get());
+        assertTrue(pool.getPrefetchCount() > 0);
+        // the scan only read the first pages itself
+        assertTrue("misses: " + pool.getMissCount(), pool.getMissCount() <= 16);
+        assertEquals(pool.getPrefetchCount(), pool.getPrefetchHitCount());
+        assertEquals(0, pool.getPrefetchWasteCount());
+    }
+
+    @Test public void readAheadThroughScanRing() throws Exception {
+        BufferPool pool = Database.resetBufferPool(20);
+        List<List<Integer>> tuples = new ArrayList<>();
+        SlowHeapFile big = slowTable(64, 1, tuples);
+        SystemTestUtil.matchTuples(big, tuples);
+        assertTrue(pool.getPrefetchHitCount() > 0);
+    }
+
+    @Test public void randomAccessIsNotReadAhead() throws Exception {
+        BufferPool pool = Database.resetBufferPool(8);
+        for (int pgNo : new int[]{5, 2, 7, 0, 3, 6, 1, 4}) {
+            pool.getPage(new TransactionId(), new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        assertEquals(0, pool.getPrefetchCount());
+        assertEquals(8, table.reads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompiledPredicateTest {
+
+    private static final int[] INTS = {Integer.MIN_VALUE, -7, -1, 0, 1, 3, 42, Integer.MAX_VALUE};
+    private static final String[] STRINGS = {"", "a", "ab", "abc", "b", "ba", "xabx", "zz"};
+
+    private static Tuple intTuple(int v) {
+        return Utility.getHeapTuple(new int[]{0, v});
+    }
+
+    private static Tuple stringTuple(String v) {
+        Tuple t = new Tuple(new TupleDesc(new Type[]{Type.STRING_TYPE}));
+        t.setField(0, new StringField(v, Type.STRING_LEN));
+        return t;
+    }
+
+    /** Checks test() and filter() against the interpreted Predicate.filter. */
+    private static void checkSame(Predicate p, List<Tuple> rows) {
+        CompiledPredicate c = p.compile();
+        TupleBatch batch = new TupleBatch(rows.get(0).getTupleDesc(), rows.size());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            boolean match = p.filter(rows.get(i));
+            assertEquals(p + " on " + rows.get(i), match, c.test(rows.get(i)));
+            if (match) {
+                expected.add(i);
+            }
+            batch.append(rows.get(i));
+        }
+        c.filter(batch);
+        List<Integer> actual = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            actual.add(batch.row(i));
+        }
+        assertEquals(p.toString(), expected, actual);
+    }
+
+    @Test public void intOperators() {
+        List<Tuple> rows = new ArrayList<>();
+        for (int v : INTS) {
+            rows.add(intTuple(v));
+        }
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v : INTS) {
+                checkSame(new Predicate(1, op, new IntField(v)), rows);
+            }
+        }
+    }
+
+    @Test public void stringOperators() {
+        List<Tuple> rows = new ArrayList<>();
+        for (String v : STRINGS) {
+            rows.add(stringTuple(v));
+        }
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String v : STRINGS) {
+                checkSame(new Predicate(0, op, new StringField(v, Type.STRING_LEN)), rows);
+            }
+        }
+    }
+
+    @Test public void conjunction() {
+        List<Predicate> both = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(5)));
+        CompiledPredicate c = CompiledPredicate.compile(both, Utility.getTupleDesc(2));
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2));
+        for (int a = 0; a < 10; a++) {
+            for (int b = 0; b < 10; b++) {
+                Tuple t = Utility.getHeapTuple(new int[]{a, b});
+                assertEquals(a > 2 && b <= 5, c.test(t));
+                batch.append(t);
+            }
+        }
+        c.filter(batch);
+        assertEquals(7 * 6, batch.size());
+        assertTrue(CompiledPredicate.compile(new ArrayList<>()).test(intTuple(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeMismatch() {
+        CompiledPredicate.compile(
+                Arrays.asList(new Predicate(0, Predicate.Op.EQUALS, new StringField("x", Type.STRING_LEN))),
+                Utility.getTupleDesc(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompiledPredicateTest.class);
+    }
+}
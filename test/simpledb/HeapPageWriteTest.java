@@ -0,0 +1,113 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapPageWriteTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    @Test public void addTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int free = page.getNumEmptySlots();
+
+        for (int i = 0; i < free; ++i) {
+            Tuple addition = Utility.getHeapTuple(i, 2);
+            page.insertTuple(addition);
+            assertEquals(free - i - 1, page.getNumEmptySlots());
+            assertEquals(pid, addition.getRecordId().getPageId());
+        }
+
+        try {
+            page.insertTuple(Utility.getHeapTuple(0, 2));
+            fail("page should be full");
+        } catch (DbException expected) {
+        }
+
+        // the modified page survives a round trip through getPageData
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < free; ++i) {
+            assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, 2), it.next()));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test public void deleteTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+        int free = page.getNumEmptySlots();
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        assertEquals(free + 1, page.getNumEmptySlots());
+
+        try {
+            page.deleteTuple(first);
+            fail("slot is already empty");
+        } catch (DbException expected) {
+        }
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(free + 1, copy.getNumEmptySlots());
+    }
+
+    @Test public void beforeImageIsOriginalUntilCommit() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, original);
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.markDirty(true, new TransactionId());
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    @Test public void singleFieldWithoutTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+        int slot = 0;
+        for (int[] values : HeapPageReadTest.EXAMPLE_VALUES) {
+            while (!page.isSlotUsed(slot)) {
+                slot++;
+            }
+            assertEquals(values[1], ((IntField) page.getField(slot, 1)).getValue());
+            slot++;
+        }
+    }
+
+    @Test public void markDirty() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        TransactionId tid = new TransactionId();
+        assertNull(page.isDirty());
+        page.markDirty(true, tid);
+        assertEquals(tid, page.isDirty());
+        page.markDirty(false, tid);
+        assertNull(page.isDirty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageWriteTest.class);
+    }
+}
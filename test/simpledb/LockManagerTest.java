@@ -0,0 +1,180 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private static final int WAIT_MILLIS = 100;
+
+    private PageId p0;
+    private PageId p1;
+    private TransactionId tid1;
+    private TransactionId tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        p0 = new HeapPageId(table.getId(), 0);
+        p1 = new HeapPageId(table.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Starts a thread that requests pid for tid and checks after a while
+     * whether it got the page.
+     */
+    private TestUtil.LockGrabber grabLock(TransactionId tid, PageId pid, Permissions perm,
+                                          boolean expected) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals(expected, t.acquired());
+        return t;
+    }
+
+    @Test public void sharedLocksAreCompatible() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid2, p0, Permissions.READ_ONLY, true);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+    }
+
+    @Test public void exclusiveLockBlocksUntilCommit() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber reader = grabLock(tid2, p0, Permissions.READ_ONLY, false);
+        // other pages are not affected
+        grabLock(tid2, p1, Permissions.READ_WRITE, true);
+
+        bp.transactionComplete(tid1, true);
+        reader.join(1000);
+        assertTrue(reader.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    @Test public void upgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid1, p0, Permissions.READ_WRITE, true);
+        grabLock(tid2, p0, Permissions.READ_ONLY, false);
+
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        // another transaction shares the lock, so tid2 must wait
+        grabLock(tid2, p1, Permissions.READ_WRITE, false);
+    }
+
+    @Test public void releasePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.releasePage(tid1, p0);
+        assertFalse(bp.holdsLock(tid1, p0));
+        grabLock(tid2, p0, Permissions.READ_WRITE, true);
+    }
+
+    /** Waits for grabber to finish and checks that it was aborted. */
+    private static void assertDeadlockVictim(TestUtil.LockGrabber grabber) throws Exception {
+        grabber.join(1000);
+        assertFalse(grabber.acquired());
+        assertTrue(grabber.getError() instanceof TransactionAbortedException);
+        assertTrue(grabber.getError().getCause() instanceof DeadlockException);
+    }
+
+    @Test public void deadlockAbortsYoungestRequester() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber older = grabLock(tid1, p1, Permissions.READ_WRITE, false);
+        // tid2 closes the cycle and is the youngest, so its own request fails
+        TestUtil.LockGrabber younger = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        assertDeadlockVictim(younger);
+        older.join(1000);
+        assertTrue(older.acquired());
+    }
+
+    @Test public void deadlockWakesYoungestWaiter() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber younger = grabLock(tid2, p0, Permissions.READ_WRITE, false);
+        // tid1 closes the cycle; tid2 is woken up and aborted
+        TestUtil.LockGrabber older = new TestUtil.LockGrabber(tid1, p1, Permissions.READ_WRITE);
+        older.start();
+        assertDeadlockVictim(younger);
+        older.join(1000);
+        assertTrue(older.acquired());
+    }
+
+    @Test public void upgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber older = grabLock(tid1, p0, Permissions.READ_WRITE, false);
+        TestUtil.LockGrabber younger = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        assertDeadlockVictim(younger);
+        older.join(1000);
+        assertTrue(older.acquired());
+    }
+
+    @Test public void waitingWithoutCycle() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        // tid3 waits for tid2, which waits for tid1: a chain, not a cycle
+        TestUtil.LockGrabber g3 = grabLock(tid3, p1, Permissions.READ_ONLY, false);
+        TestUtil.LockGrabber g2 = grabLock(tid2, p0, Permissions.READ_ONLY, false);
+        assertNull(g2.getError());
+        assertNull(g3.getError());
+
+        bp.transactionComplete(tid1);
+        g2.join(1000);
+        assertTrue(g2.acquired());
+        bp.transactionComplete(tid2);
+        g3.join(1000);
+        assertTrue(g3.acquired());
+        bp.transactionComplete(tid3);
+    }
+
+    @Test public void lockManagerWithoutPool() throws Exception {
+        LockManager locks = new LockManager();
+        locks.acquire(tid1, p0, Permissions.READ_ONLY);
+        locks.acquire(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(locks.holdsExclusive(tid2, p0));
+        locks.releaseAll(tid1);
+        locks.acquire(tid2, p0, Permissions.READ_WRITE);
+        assertTrue(locks.holdsExclusive(tid2, p0));
+        locks.releaseAll(tid2);
+        assertTrue(locks.lockedPages(tid2).isEmpty());
+        locks.acquire(tid1, p0, Permissions.READ_WRITE);
+    }
+
+    @After public void completeTransactions() {
+        // wake up grabbers that are still waiting
+        bp.transactionComplete(tid1);
+        bp.transactionComplete(tid2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
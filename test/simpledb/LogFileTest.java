@@ -0,0 +1,182 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogFileTest extends SimpleDbTestBase {
+    private File file;
+    private LogFile log;
+
+    @Before public void createLog() throws Exception {
+        file = File.createTempFile("simpledb-log", null);
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    @After public void deleteSegments() {
+        for (File segment : segments()) {
+            segment.delete();
+        }
+    }
+
+    private File[] segments() {
+        File[] segments = file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName() + "."));
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /** @return the bytes in all segments of the log */
+    private long logBytes() {
+        long bytes = 0;
+        for (File segment : segments()) {
+            bytes += segment.length();
+        }
+        return bytes;
+    }
+
+    @Test public void eachLoneCommitForces() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            log.logCommit(new TransactionId());
+        }
+        assertEquals(3, log.getSyncCount());
+        assertEquals(3, log.getCommitCount());
+        // nothing new to force
+        log.force();
+        assertEquals(3, log.getSyncCount());
+    }
+
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        log.setGroupCommitDelay(5, TimeUnit.MILLISECONDS);
+        int threads = 8;
+        int commits = 10;
+        List<Thread> committers = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (int j = 0; j < commits; j++) {
+                        log.logCommit(new TransactionId());
+                    }
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            committers.add(t);
+            t.start();
+        }
+        for (Thread t : committers) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+        assertEquals(threads * commits, log.getTotalRecords());
+        assertEquals(threads * commits, log.getCommitCount());
+        assertTrue(log.getSyncCount() < threads * commits);
+        assertTrue(log.getCommitsPerSync() > 1);
+    }
+
+    @Test public void checkpointKeepsCommitsDurable() throws Exception {
+        log.logCommit(new TransactionId());
+        // truncates the log into a new file
+        log.logCheckpoint();
+        long syncs = log.getSyncCount();
+        log.force();
+        assertEquals(syncs, log.getSyncCount());
+        log.logCommit(new TransactionId());
+        assertEquals(syncs + 1, log.getSyncCount());
+    }
+
+    @Test public void checkpointDoesNotWaitForBufferPool() throws Exception {
+        log.logCommit(new TransactionId());
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (Database.getBufferPool()) {
+                other.submit(() -> {
+                    log.logCheckpoint();
+                    return null;
+                }).get(1, TimeUnit.SECONDS);
+            }
+        } finally {
+            other.shutdownNow();
+        }
+    }
+
+    @Test public void recordsAreWrittenInBulk() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        assertEquals(0, log.getWriteCallCount());
+        log.force();
+        assertEquals(1, log.getWriteCallCount());
+        // each begin record is an int and two longs
+        assertEquals(100 * (Integer.BYTES + 2 * Long.BYTES), logBytes());
+    }
+
+    @Test public void fullBufferIsWritten() throws Exception {
+        int records = 2 * LogFile.BUFFER_SIZE / (Integer.BYTES + 2 * Long.BYTES);
+        for (int i = 0; i < records; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        assertTrue(log.getWriteCallCount() >= 1);
+        log.logCommit(new TransactionId());
+        assertEquals((records + 1) * (Integer.BYTES + 2 * Long.BYTES), logBytes());
+    }
+
+    @Test public void recordsContinueInNextSegment() throws Exception {
+        int record = Integer.BYTES + 2 * Long.BYTES;
+        log = new LogFile(file, 3 * record + 7);
+        for (int i = 0; i < 10; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        log.force();
+        assertEquals(10 * record, logBytes());
+        assertEquals(3, segments().length);
+    }
+
+    @Test public void truncationDeletesOldSegments() throws Exception {
+        int record = Integer.BYTES + 2 * Long.BYTES;
+        log = new LogFile(file, 4 * record);
+        TransactionId running = new TransactionId();
+        for (int i = 0; i < 8; i++) {
+            log.logCommit(new TransactionId());
+        }
+        log.logXactionBegin(running);
+        for (int i = 0; i < 8; i++) {
+            log.logCommit(new TransactionId());
+        }
+        File[] before = segments();
+        // keeps the segment holding the BEGIN record of running
+        log.logCheckpoint();
+        File[] after = segments();
+        assertEquals(before.length - 2, after.length);
+        assertFalse(before[0].exists());
+        assertFalse(before[1].exists());
+        assertTrue(before[2].exists());
+        log.logCommit(running);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
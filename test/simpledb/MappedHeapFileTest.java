@@ -0,0 +1,89 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private File file;
+    private List<List<Integer>> tuples;
+    private MappedHeapFile mapped;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 1500, 1 << 16, null, tuples);
+        mapped = new MappedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+    }
+
+    @Test public void scanMatchesContents() throws Exception {
+        assertEquals(3, mapped.numPages());
+        SystemTestUtil.matchTuples(mapped, tuples);
+    }
+
+    @Test public void pagesMatchHeapFile() throws Exception {
+        HeapFile plain = new HeapFile(file, Utility.getTupleDesc(2));
+        for (int i = 0; i < mapped.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            assertArrayEquals(plain.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readPastEnd() {
+        mapped.readPage(new HeapPageId(mapped.getId(), 3));
+    }
+
+    @Test public void loadedPageIgnoresLaterWrites() throws Exception {
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage loaded = (HeapPage) mapped.readPage(pid);
+        byte[] before = loaded.getPageData();
+
+        HeapPage changed = (HeapPage) mapped.readPage(pid);
+        changed.deleteTuple(changed.iterator().next());
+        mapped.writePage(changed);
+        assertArrayEquals(before, loaded.getPageData());
+    }
+
+    @Test public void remapsWhenFileGrows() throws Exception {
+        HeapPageId first = new HeapPageId(mapped.getId(), 0);
+        byte[] firstPage = mapped.readPage(first).getPageData();
+
+        // append a copy of the first page behind the current mapping
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(firstPage);
+        }
+        HeapPage appended = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 3));
+        HeapPage original = (HeapPage) mapped.readPage(first);
+
+        Iterator<Tuple> expected = original.iterator();
+        Iterator<Tuple> actual = appended.iterator();
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MultiVersionTest extends SimpleDbTestBase {
+    private BufferPool bp;
+    private HeapFile table;
+    private List<List<Integer>> tuples;
+    private TransactionId reader;
+    private TransactionId writer;
+    private ExecutorService other;
+
+    @Before public void setUp() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setMultiVersion(true);
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, 100, null, tuples);
+        reader = new TransactionId();
+        writer = new TransactionId();
+        other = Executors.newSingleThreadExecutor();
+    }
+
+    /** Reads the whole table on behalf of tid. */
+    private List<List<Integer>> scan(TransactionId tid) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    private static Tuple tuple(int v) {
+        return TestUtil.createTupleList(2, new int[]{v, v}).next();
+    }
+
+    /** Runs r in another thread and fails if it blocks. */
+    private <T> T runConcurrently(Callable<T> r) throws Exception {
+        return other.submit(r).get(1, TimeUnit.SECONDS);
+    }
+
+    /** Deletes the first tuple and inserts a new one on behalf of writer. */
+    private void change() throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(writer, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        bp.deleteTuple(writer, page.getTuple(0));
+        bp.insertTuple(writer, table.getId(), tuple(-1));
+    }
+
+    @Test public void scanDoesNotBlockOnWriter() throws Exception {
+        change();
+        assertEquals(tuples, runConcurrently(() -> scan(reader)));
+        assertFalse(bp.holdsLock(reader, new HeapPageId(table.getId(), 0)));
+    }
+
+    @Test public void writerDoesNotBlockOnScan() throws Exception {
+        assertEquals(tuples, scan(reader));
+        runConcurrently(() -> {
+            change();
+            return null;
+        });
+    }
+
+    @Test public void snapshotIgnoresLaterCommits() throws Exception {
+        bp.getSnapshot(reader);
+        change();
+        bp.transactionComplete(writer, true);
+
+        assertEquals(tuples, scan(reader));
+        List<List<Integer>> latest = scan(new TransactionId());
+        assertEquals(100, latest.size());
+        assertFalse(latest.contains(tuples.get(0)));
+        assertTrue(latest.contains(SystemTestUtil.tupleToList(tuple(-1))));
+    }
+
+    @Test public void scanIgnoresWritesAfterItFetchedThePage() throws Exception {
+        DbFileIterator it = table.iterator(reader);
+        it.open();
+        List<List<Integer>> rows = new ArrayList<>();
+        rows.add(SystemTestUtil.tupleToList(it.next()));
+        HeapPage page = (HeapPage) bp.getPage(writer, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        bp.deleteTuple(writer, page.getTuple(1));
+        bp.insertTuple(writer, table.getId(), tuple(-1));
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        assertEquals(tuples, rows);
+    }
+
+    @Test public void writerSeesOwnChanges() throws Exception {
+        change();
+        List<List<Integer>> own = scan(writer);
+        assertFalse(own.contains(tuples.get(0)));
+        assertTrue(own.contains(SystemTestUtil.tupleToList(tuple(-1))));
+    }
+
+    @Test public void deletedSlotIsKeptForOlderSnapshots() throws Exception {
+        bp.getSnapshot(reader);
+        change();
+        bp.transactionComplete(writer, true);
+        // the inserted tuple did not take the slot the deleted one left
+        List<List<Integer>> rows = scan(reader);
+        assertEquals(tuples, rows);
+
+        bp.transactionComplete(reader, true);
+        TransactionId next = new TransactionId();
+        bp.insertTuple(next, table.getId(), tuple(-2));
+        HeapPage page = (HeapPage) bp.getPage(next, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(SystemTestUtil.tupleToList(tuple(-2)), SystemTestUtil.tupleToList(page.getTuple(0)));
+        bp.transactionComplete(next, true);
+    }
+
+    @Test public void historySurvivesEviction() throws Exception {
+        bp = Database.resetBufferPool(4);
+        bp.setMultiVersion(true);
+        bp.setPrefetching(false);
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        List<List<Integer>> before = scan(reader);
+        change();
+        bp.transactionComplete(writer, true);
+
+        TransactionId scanner = new TransactionId();
+        for (int p = 1; p < table.numPages(); p++) {
+            bp.getPage(scanner, new HeapPageId(table.getId(), p), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(scanner, true);
+        assertEquals(before, scan(reader));
+    }
+
+    @Test public void deletingTupleDeletedSinceSnapshotAborts() throws Exception {
+        HeapPage page = (HeapPage) bp.getSnapshotPage(reader, new HeapPageId(table.getId(), 0), null);
+        Tuple first = page.getTuple(0);
+        change();
+        bp.transactionComplete(writer, true);
+        try {
+            bp.deleteTuple(reader, first);
+            fail("expected a write conflict");
+        } catch (TransactionAbortedException expected) {
+        }
+    }
+
+    @Test public void recordLevelCommits() throws Exception {
+        bp.setRecordLocking(true);
+        bp.getSnapshot(reader);
+        bp.insertTuple(writer, table.getId(), tuple(-1));
+        TransactionId aborter = new TransactionId();
+        bp.insertTuple(aborter, table.getId(), tuple(-2));
+        bp.transactionComplete(writer, true);
+
+        assertEquals(tuples, scan(reader));
+        List<List<Integer>> latest = scan(aborter);
+        assertEquals(102, latest.size());
+        bp.transactionComplete(aborter, false);
+        assertEquals(101, scan(new TransactionId()).size());
+    }
+
+    @After public void tearDown() {
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer);
+        other.shutdownNow();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiVersionTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import simpledb.execution.Exchange;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        // about 60 pages, so several morsels
+        table = SystemTestUtil.createRandomHeapFile(2, 30000, 1000, null, tuples);
+    }
+
+    @Test public void returnsEveryTuple() throws Exception {
+        for (int parallelism : new int[]{1, 3, 8}) {
+            ParallelSeqScan scan = new ParallelSeqScan(new TransactionId(), table.getId(), "t", parallelism,
+                    Collections.emptyList(), null);
+            SystemTestUtil.matchTuples(scan, tuples);
+        }
+    }
+
+    @Test public void pushdown() throws Exception {
+        List<Predicate> preds = Collections.singletonList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 10) {
+                expected.add(Collections.singletonList(t.get(1)));
+            }
+        }
+        ParallelSeqScan scan = new ParallelSeqScan(new TransactionId(), table.getId(), "t", 4, preds, new int[]{1});
+        assertEquals(1, scan.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(scan, expected);
+    }
+
+    @Test public void rewindAndEarlyClose() throws Exception {
+        ParallelSeqScan scan = new ParallelSeqScan(new TransactionId(), table.getId(), "t");
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            scan.next();
+        }
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        assertEquals(tuples.size(), count);
+        scan.rewind();
+        scan.next();
+        // closing with workers still running must not hang
+        scan.close();
+    }
+
+    @Test public void exchangeRethrowsChildFailure() throws Exception {
+        OpIterator failing = new TestUtil.MockScan(0, 5000, 1) {
+            int n = 0;
+
+            @Override
+            public Tuple next() {
+                if (++n == 2000) {
+                    throw new IllegalStateException("boom");
+                }
+                return super.next();
+            }
+        };
+        Exchange exchange = new Exchange(Arrays.asList(failing, new TestUtil.MockScan(0, 10, 1)));
+        exchange.open();
+        try {
+            while (exchange.hasNext()) {
+                exchange.next();
+            }
+            fail("expected the child's exception");
+        } catch (IllegalStateException expected) {
+            assertEquals("boom", expected.getMessage());
+        }
+        exchange.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RecordLockingTest extends SimpleDbTestBase {
+    private BufferPool bp;
+    private HeapFile table;
+    private HeapPageId pid;
+    private TransactionId tid1;
+    private TransactionId tid2;
+    private ExecutorService other;
+
+    @Before public void setUp() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRecordLocking(true);
+        table = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        pid = new HeapPageId(table.getId(), 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        other = Executors.newSingleThreadExecutor();
+    }
+
+    private static int usedSlots(HeapPage page) {
+        int used = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            used++;
+        }
+        return used;
+    }
+
+    private static Tuple tuple(int v) {
+        return TestUtil.createTupleList(2, new int[]{v, v}).next();
+    }
+
+    /** Runs r in another thread and fails if it blocks. */
+    private void runConcurrently(Callable<?> r) throws Exception {
+        other.submit(r).get(1, TimeUnit.SECONDS);
+    }
+
+    @Test public void lockModes() {
+        assertTrue(LockMode.IX.isCompatibleWith(LockMode.IX));
+        assertTrue(LockMode.IS.isCompatibleWith(LockMode.SIX));
+        assertFalse(LockMode.S.isCompatibleWith(LockMode.IX));
+        assertFalse(LockMode.X.isCompatibleWith(LockMode.IS));
+        assertEquals(LockMode.SIX, LockMode.S.supremum(LockMode.IX));
+        assertEquals(LockMode.X, LockMode.X.supremum(LockMode.IS));
+        assertEquals(LockMode.IX, LockMode.IS.supremum(LockMode.IX));
+    }
+
+    @Test public void insertsShareLastPage() throws Exception {
+        bp.insertTuple(tid1, table.getId(), tuple(1));
+        runConcurrently(() -> {
+            bp.insertTuple(tid2, table.getId(), tuple(2));
+            return null;
+        });
+        assertEquals(1, table.numPages());
+        assertTrue(bp.holdsLock(tid1, new RecordId(pid, 100)));
+        assertTrue(bp.holdsLock(tid2, new RecordId(pid, 101)));
+
+        bp.transactionComplete(tid2, false);
+        bp.transactionComplete(tid1, true);
+        HeapPage page = (HeapPage) bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertNull(page.isDirty());
+        assertEquals(101, usedSlots(page));
+        assertTrue(page.isSlotUsed(100));
+        assertFalse(page.isSlotUsed(101));
+
+        bp.flushAllPages();
+        assertEquals(101, usedSlots((HeapPage) table.readPage(pid)));
+    }
+
+    @Test public void deletesShareOnePage() throws Exception {
+        HeapPage page = (HeapPage) bp.getPageForRecords(tid1, pid, Permissions.READ_ONLY);
+        Tuple first = page.getTuple(0);
+        Tuple second = page.getTuple(1);
+        bp.deleteTuple(tid1, first);
+        runConcurrently(() -> {
+            bp.deleteTuple(tid2, second);
+            return null;
+        });
+
+        bp.transactionComplete(tid1, true);
+        bp.transactionComplete(tid2, false);
+        page = (HeapPage) bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.isSlotUsed(1));
+        assertEquals(99, usedSlots(page));
+    }
+
+    @Test public void slotFreedByRunningDeleteIsNotReused() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        HeapPageId fullPid = new HeapPageId(full.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPageForRecords(tid1, fullPid, Permissions.READ_ONLY);
+        bp.deleteTuple(tid1, page.getTuple(0));
+        // the free slot stays reserved until tid1 completes
+        runConcurrently(() -> {
+            bp.insertTuple(tid2, full.getId(), tuple(2));
+            return null;
+        });
+        assertEquals(2, full.numPages());
+
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, true);
+        assertTrue(page.isSlotUsed(0));
+    }
+
+    @Test public void slotChangesAreNotStolen() throws Exception {
+        bp.insertTuple(tid1, table.getId(), tuple(1));
+        bp.insertTuple(tid2, table.getId(), tuple(2));
+        bp.flushAllPages();
+        assertEquals(100, usedSlots((HeapPage) table.readPage(pid)));
+
+        bp.transactionComplete(tid2, false);
+        bp.transactionComplete(tid1, true);
+        bp.flushAllPages();
+        assertEquals(101, usedSlots((HeapPage) table.readPage(pid)));
+        assertNull(bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY).isDirty());
+    }
+
+    @Test public void pageReaderWaitsForRecordWriter() throws Exception {
+        bp.insertTuple(tid1, table.getId(), tuple(1));
+        TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid2, pid, Permissions.READ_ONLY);
+        reader.start();
+        Thread.sleep(100);
+        assertFalse(reader.acquired());
+
+        bp.transactionComplete(tid1, true);
+        reader.join(1000);
+        assertTrue(reader.acquired());
+    }
+
+    @After public void tearDown() {
+        bp.transactionComplete(tid1);
+        bp.transactionComplete(tid2);
+        other.shutdownNow();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
@@ -0,0 +1,282 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RecoveryTest extends SimpleDbTestBase {
+    private File file;
+    private long segmentSize = LogFile.SEGMENT_SIZE;
+    private LogFile log;
+    private HeapFile table;
+    private List<List<Integer>> tuples;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("simpledb-log", null);
+        file.deleteOnExit();
+        log = new LogFile(file);
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        pid = new HeapPageId(table.getId(), 0);
+    }
+
+    @After public void deleteSegments() {
+        for (File segment : segments()) {
+            segment.delete();
+        }
+    }
+
+    private File[] segments() {
+        return file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName() + "."));
+    }
+
+    /** @return the bytes in all segments of the log */
+    private long logBytes() {
+        long bytes = 0;
+        for (File segment : segments()) {
+            bytes += segment.length();
+        }
+        return bytes;
+    }
+
+    /** Deletes the first tuple of page 0 and logs the change for tid. */
+    private HeapPage update(TransactionId tid) throws Exception {
+        HeapPage page = (HeapPage) table.readPage(pid);
+        HeapPage before = page.getBeforeImage();
+        page.deleteTuple(page.getTuple(0));
+        page.setLSN(log.logWrite(tid, before, page));
+        return page;
+    }
+
+    /** Forgets everything in memory and recovers from the log. */
+    private void crashAndRecover() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log = new LogFile(file, segmentSize);
+        log.recover();
+    }
+
+    private List<List<Integer>> onDisk() throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        HeapPage page = (HeapPage) table.readPage(pid);
+        page.iterator().forEachRemaining(t -> rows.add(SystemTestUtil.tupleToList(t)));
+        return rows;
+    }
+
+    @Test public void committedUpdateIsRedone() throws Exception {
+        TransactionId tid = new TransactionId();
+        update(tid);
+        log.logCommit(tid);
+        // the page itself never reached the disk
+        assertEquals(tuples, onDisk());
+
+        crashAndRecover();
+        assertEquals(tuples.subList(1, tuples.size()), onDisk());
+    }
+
+    @Test public void uncommittedUpdateIsUndone() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = update(tid);
+        log.force(page.getLSN());
+        table.writePage(page);
+
+        crashAndRecover();
+        assertEquals(tuples, onDisk());
+        // the undo was logged, so recovering again changes nothing
+        crashAndRecover();
+        assertEquals(tuples, onDisk());
+    }
+
+    @Test public void loserActiveAtCheckpointIsUndone() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = update(tid);
+        log.force(page.getLSN());
+        table.writePage(page);
+        log.logCheckpoint();
+
+        crashAndRecover();
+        assertEquals(tuples, onDisk());
+    }
+
+    @Test public void pageUnwrittenAtCheckpointIsRedone() throws Exception {
+        segmentSize = 32;
+        log = new LogFile(file, segmentSize);
+        TransactionId tid = new TransactionId();
+        update(tid);
+        log.logCommit(tid);
+        // writes no pages, and keeps the segments of the update
+        log.logCheckpoint();
+        assertEquals(tuples, onDisk());
+
+        crashAndRecover();
+        assertEquals(tuples.subList(1, tuples.size()), onDisk());
+    }
+
+    @Test public void updateLogsOnlyChangedBytes() throws Exception {
+        update(new TransactionId());
+        log.force();
+        assertTrue(logBytes() < BufferPool.getPageSize() / 8);
+    }
+
+    @Test public void recordsHoldNoClassNames() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = update(tid);
+        log.force(page.getLSN());
+        table.writePage(page);
+        // the undo logs a CLR with the whole restored page
+        log.rollback(tid);
+        log.force();
+        for (File segment : segments()) {
+            String contents = new String(Files.readAllBytes(segment.toPath()), StandardCharsets.ISO_8859_1);
+            assertFalse(contents.contains(HeapPage.class.getName()));
+        }
+        assertEquals(tuples, onDisk());
+    }
+
+    @Test public void compressedRecordsAreRecovered() throws Exception {
+        log.setCompression(true);
+        TransactionId tid = new TransactionId();
+        HeapPage page = update(tid);
+        log.force(page.getLSN());
+        table.writePage(page);
+        // the CLR holds the whole page, mostly zeros in empty slots
+        log.rollback(tid);
+        log.force();
+        assertTrue(logBytes() < BufferPool.getPageSize() / 8);
+
+        crashAndRecover();
+        assertEquals(tuples, onDisk());
+    }
+
+    @Test public void changeUndoneBetweenStealsIsRedone() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = update(tid);
+        log.force(page.getLSN());
+        table.writePage(page);
+        // puts the deleted tuple back into its slot, so the page equals its
+        // before image again
+        page.insertTuple(TestUtil.createTupleList(2, new int[]{tuples.get(0).get(0), tuples.get(0).get(1)}).next());
+        log.logWrite(tid, page.getBeforeImage(), page);
+        log.logCommit(tid);
+
+        crashAndRecover();
+        assertEquals(tuples, onDisk());
+    }
+
+    @Test public void recordsSpanningSegmentsAreRecovered() throws Exception {
+        segmentSize = 32;
+        log = new LogFile(file, segmentSize);
+        TransactionId committed = new TransactionId();
+        HeapPage page = update(committed);
+        log.logCommit(committed);
+        page.setBeforeImage();
+        // a loser deletes the next tuple and its page is written
+        TransactionId loser = new TransactionId();
+        page.deleteTuple(page.getTuple(1));
+        page.setLSN(log.logWrite(loser, page.getBeforeImage(), page));
+        log.force(page.getLSN());
+        table.writePage(page);
+        assertTrue(segments().length > 2);
+
+        crashAndRecover();
+        assertEquals(tuples.subList(1, tuples.size()), onDisk());
+    }
+
+    @Test public void pagesAreRedoneInParallel() throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        TransactionId tid = new TransactionId();
+        for (int p = 0; p < table.numPages(); p++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            HeapPage before = page.getBeforeImage();
+            expected.remove(SystemTestUtil.tupleToList(page.getTuple(0)));
+            page.deleteTuple(page.getTuple(0));
+            log.logWrite(tid, before, page);
+        }
+        log.logCommit(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log = new LogFile(file);
+        log.setRedoParallelism(4);
+        log.recover();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int p = 0; p < table.numPages(); p++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            page.iterator().forEachRemaining(t -> rows.add(SystemTestUtil.tupleToList(t)));
+        }
+        assertEquals(expected, rows);
+    }
+
+    @Test public void abortRollsBackWrittenPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.getTuple(0));
+        // steal: the uncommitted page is written
+        bp.flushPages(tid);
+        assertEquals(tuples.subList(1, tuples.size()), onDisk());
+
+        bp.transactionComplete(tid, false);
+        assertEquals(tuples, onDisk());
+    }
+
+    @Test public void commitAfterStealIsRedone() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(tid, page.getTuple(0));
+        // steal: the page is written and clean when the transaction commits
+        bp.flushPages(tid);
+        bp.transactionComplete(tid, true);
+
+        // recovers the log the buffer pool wrote
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        new LogFile(new File("log")).recover();
+        assertEquals(tuples.subList(1, tuples.size()), onDisk());
+    }
+
+    @Test public void abortAfterStolenCommitKeepsIt() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId t1 = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(t1, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(t1, page.getTuple(0));
+        bp.flushPages(t1);
+        bp.transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        page = (HeapPage) bp.getPage(t2, pid, Permissions.READ_WRITE);
+        bp.deleteTuple(t2, page.getTuple(1));
+        bp.transactionComplete(t2, false);
+
+        TransactionId t3 = new TransactionId();
+        page = (HeapPage) bp.getPage(t3, pid, Permissions.READ_ONLY);
+        List<List<Integer>> rows = new ArrayList<>();
+        page.iterator().forEachRemaining(t -> rows.add(SystemTestUtil.tupleToList(t)));
+        assertEquals(tuples.subList(1, tuples.size()), rows);
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
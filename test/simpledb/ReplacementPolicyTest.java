@@ -0,0 +1,151 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Fills a policy with pages 0..n-1 and evicts one page.
+     */
+    private static PageId fillAndEvict(ReplacementPolicy policy, int n) {
+        for (int i = 0; i < n; i++) {
+            policy.recordAccess(page(i));
+        }
+        PageId victim = policy.chooseVictim(pid -> true);
+        policy.remove(victim);
+        return victim;
+    }
+
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy policy = new ClockPolicy(3);
+        assertEquals(page(0), fillAndEvict(policy, 3));
+
+        // page 1 and 2 lost their reference bits on the sweep; touch 1 again
+        policy.recordAccess(page(3));
+        policy.recordAccess(page(1));
+        assertEquals(page(2), policy.chooseVictim(pid -> true));
+    }
+
+    @Test public void lruKEvictsPagesWithFewerThanKReferences() {
+        ReplacementPolicy policy = new LruKPolicy(4, 2);
+        policy.recordAccess(page(0));
+        policy.recordAccess(page(0));
+        policy.recordAccess(page(1));
+        policy.recordAccess(page(1));
+        policy.recordAccess(page(2));
+        policy.recordAccess(page(3));
+
+        // 2 and 3 were seen once; 2 has the oldest last reference
+        assertEquals(page(2), policy.chooseVictim(pid -> true));
+        // among pages with two references, 0 has the oldest second reference
+        assertEquals(page(0), policy.chooseVictim(pid -> pid.getPageNumber() < 2));
+    }
+
+    @Test public void lruKRemembersEvictedPages() {
+        ReplacementPolicy policy = new LruKPolicy(4, 2);
+        policy.recordAccess(page(0));
+        policy.remove(page(0));
+        policy.recordAccess(page(1));
+        policy.recordAccess(page(0));
+
+        // page 0 now has two references, page 1 only one
+        assertEquals(page(1), policy.chooseVictim(pid -> true));
+    }
+
+    @Test public void twoQueueProtectsReReferencedPages() {
+        ReplacementPolicy policy = new TwoQueuePolicy(8);
+        policy.recordAccess(page(0));
+        policy.remove(page(0));
+        // a second reference while in A1out promotes to Am
+        policy.recordAccess(page(0));
+        for (int i = 1; i < 8; i++) {
+            policy.recordAccess(page(i));
+        }
+        // A1in drains down to its target size before Am is touched
+        for (int i = 0; i < 5; i++) {
+            PageId victim = policy.chooseVictim(pid -> true);
+            assertNotEquals(page(0), victim);
+            policy.remove(victim);
+        }
+    }
+
+    @Test public void arcAdaptsTowardsRecency() {
+        ArcPolicy policy = new ArcPolicy(4);
+        assertEquals(page(0), fillAndEvict(policy, 4));
+        assertEquals(0, policy.getTarget());
+
+        // a hit in B1 grows the target size of T1
+        policy.recordAccess(page(0));
+        assertTrue(policy.getTarget() > 0);
+    }
+
+    @Test public void discardedPagesLeaveNoGhost() {
+        ArcPolicy arc = new ArcPolicy(4);
+        for (int i = 0; i < 4; i++) {
+            arc.recordAccess(page(i));
+        }
+        arc.discard(page(0));
+        // a page read again after a discard is new, not a hit in B1
+        arc.recordAccess(page(0));
+        assertEquals(0, arc.getTarget());
+
+        ReplacementPolicy twoQueue = new TwoQueuePolicy(8);
+        twoQueue.recordAccess(page(5));
+        twoQueue.remove(page(5));
+        twoQueue.recordAccess(page(5));
+        twoQueue.recordAccess(page(0));
+        twoQueue.discard(page(0));
+        // not promoted to Am, so it goes before the hot page 5
+        twoQueue.recordAccess(page(0));
+        twoQueue.recordAccess(page(1));
+        twoQueue.recordAccess(page(2));
+        assertEquals(page(0), twoQueue.chooseVictim(pid -> true));
+    }
+
+    @Test public void victimMustBeEvictable() {
+        for (String name : new String[]{"clock", "lru-k", "2q", "arc"}) {
+            ReplacementPolicy policy = ReplacementPolicy.forName(name, 4);
+            for (int i = 0; i < 4; i++) {
+                policy.recordAccess(page(i));
+            }
+            assertEquals(name, page(3), policy.chooseVictim(pid -> pid.getPageNumber() == 3));
+            assertNull(name, policy.chooseVictim(pid -> false));
+        }
+    }
+
+    /**
+     * Scanning a table that is larger than the buffer pool must evict pages
+     * instead of failing.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        for (String name : new String[]{"clock", "lru-k", "2q", "arc"}) {
+            Database.resetBufferPool(5, ReplacementPolicy.forName(name, 5));
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 12, null, tuples);
+            assertEquals(12, f.numPages());
+            SystemTestUtil.matchTuples(f, tuples);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ScanPushdownTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(4, 3000, 100, null, tuples);
+    }
+
+    /** Expected rows: those with f1 < 10 and f3 >= 50, fields 3 and 0. */
+    private List<List<Integer>> expected() {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 10 && t.get(3) >= 50) {
+                out.add(Arrays.asList(t.get(3), t.get(0)));
+            }
+        }
+        return out;
+    }
+
+    private static final List<Predicate> PREDICATES = Arrays.asList(
+            new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10)),
+            new Predicate(3, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)));
+    private static final int[] PROJECTION = {3, 0};
+
+    private static List<List<Integer>> drain(DbFileIterator it) throws Exception {
+        List<List<Integer>> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertNotNull(t.getRecordId());
+            out.add(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        return out;
+    }
+
+    @Test public void heapFileFiltersAndProjects() throws Exception {
+        DbFileIterator it = table.iterator(new TransactionId(), null, PREDICATES, PROJECTION);
+        assertEquals(expected(), drain(it));
+        // rewinding starts over
+        it.open();
+        it.rewind();
+        assertEquals(expected().size(), drain(it).size());
+    }
+
+    @Test public void recordIdsPointAtStoredTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid, null, PREDICATES, PROJECTION);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            RecordId rid = t.getRecordId();
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple stored = page.getTuple(rid.getTupleNumber());
+            assertEquals(stored.getField(3), t.getField(0));
+            assertEquals(stored.getField(0), t.getField(1));
+        }
+        it.close();
+    }
+
+    @Test public void defaultMatchesHeapFile() throws Exception {
+        // a DbFile without its own implementation gets the generic one
+        DbFile plain = new TestUtil.SkeletonFile(table.getId(), table.getTupleDesc()) {
+            @Override
+            public DbFileIterator iterator(TransactionId tid) {
+                return table.iterator(tid);
+            }
+        };
+        assertEquals(expected(), drain(plain.iterator(new TransactionId(), null, PREDICATES, PROJECTION)));
+    }
+
+    @Test public void seqScanPushdown() throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), table.getId(), "t", PREDICATES, PROJECTION);
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t." + table.getTupleDesc().getFieldName(3), td.getFieldName(0));
+        SystemTestUtil.matchTuples(scan, expected());
+
+        // batches carry the same rows
+        scan.open();
+        int rows = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            rows += batch.size();
+        }
+        scan.close();
+        assertEquals(expected().size(), rows);
+    }
+
+    @Test public void projectionOnly() throws Exception {
+        DbFileIterator it = table.iterator(new TransactionId(), null, Collections.emptyList(), new int[]{2});
+        it.open();
+        for (List<Integer> t : tuples) {
+            assertEquals(Collections.singletonList(t.get(2)), SystemTestUtil.tupleToList(it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void predicateTypeMismatch() {
+        table.iterator(new TransactionId(), null,
+                Collections.singletonList(new Predicate(0, Predicate.Op.EQUALS, new StringField("x", Type.STRING_LEN))),
+                null);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanPushdownTest.class);
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.BatchAdapter;
+import simpledb.execution.BatchOpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private HeapFile table;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(3, 2500, 100, null, tuples);
+    }
+
+    /** Reads every selected row of every batch of op. */
+    private List<Tuple> readBatches(BatchOpIterator op) throws Exception {
+        List<Tuple> out = new ArrayList<>();
+        op.open();
+        TupleBatch batch;
+        while ((batch = op.nextBatch()) != null) {
+            assertTrue(batch.size() > 0);
+            assertTrue(batch.rowCount() <= TupleBatch.DEFAULT_CAPACITY);
+            for (int i = 0; i < batch.size(); i++) {
+                out.add(batch.getTuple(i));
+            }
+        }
+        op.close();
+        return out;
+    }
+
+    @Test public void scanBatchesMatchTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> rows = readBatches(new SeqScan(tid, table.getId()));
+        assertEquals(tuples.size(), rows.size());
+
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        for (Tuple row : rows) {
+            Tuple t = scan.next();
+            assertEquals(SystemTestUtil.tupleToList(t), SystemTestUtil.tupleToList(row));
+            assertEquals(t.getRecordId(), row.getRecordId());
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+    }
+
+    @Test public void mixNextAndNextBatch() throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), table.getId());
+        scan.open();
+        Tuple first = scan.next();
+        TupleBatch batch = scan.nextBatch();
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(first));
+        assertEquals(tuples.get(1), SystemTestUtil.tupleToList(batch.getTuple(0)));
+        scan.close();
+    }
+
+    @Test public void modifiedSlotsAreBatched() throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        page.deleteTuple(page.getTuple(0));
+        Tuple replacement = TestUtil.createTupleList(3, new int[]{-1, -2, -3}).next();
+        page.insertTuple(replacement);
+
+        SeqScan scan = new SeqScan(new TransactionId(), table.getId());
+        scan.open();
+        Tuple row = scan.nextBatch().getTuple(0);
+        assertTrue(TestUtil.compareTuples(replacement, row));
+        assertEquals(new RecordId(pid, 0), row.getRecordId());
+        scan.close();
+    }
+
+    @Test public void batchFilterMatchesTupleFilter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(50));
+            int expected = 0;
+            for (List<Integer> t : tuples) {
+                if (new IntField(t.get(1)).compare(op, new IntField(50))) {
+                    expected++;
+                }
+            }
+
+            int actual = 0;
+            SeqScan scan = new SeqScan(new TransactionId(), table.getId());
+            scan.open();
+            TupleBatch batch;
+            while ((batch = scan.nextBatch()) != null) {
+                p.filter(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    assertTrue(p.filter(batch.getTuple(i)));
+                }
+                actual += batch.size();
+            }
+            scan.close();
+            assertEquals(op.toString(), expected, actual);
+        }
+    }
+
+    @Test public void stringFilterMatchesTupleFilter() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE});
+        String[] values = {"", "a", "ab", "abc", "b", "ba", "xabx", "zz"};
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String operand : values) {
+                TupleBatch batch = new TupleBatch(td, values.length);
+                for (String v : values) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, new StringField(v, Type.STRING_LEN));
+                    batch.append(t);
+                }
+                Predicate p = new Predicate(0, op, new StringField(operand, Type.STRING_LEN));
+                p.filter(batch);
+
+                List<String> expected = new ArrayList<>();
+                for (String v : values) {
+                    if (new StringField(v, Type.STRING_LEN).compare(op, p.getOperand())) {
+                        expected.add(v);
+                    }
+                }
+                List<String> actual = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    actual.add(batch.getString(0, batch.row(i)));
+                }
+                assertEquals(op + " " + operand, expected, actual);
+            }
+        }
+    }
+
+    @Test public void adapterBatchesTupleOperators() throws Exception {
+        int[] data = new int[2 * 2000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i;
+        }
+        TupleIterator child = TestUtil.createTupleList(2, data);
+        child.close();
+        List<Tuple> rows = readBatches(BatchAdapter.of(child));
+        assertEquals(2000, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(2 * i + 1, ((IntField) rows.get(i).getField(1)).getValue());
+        }
+
+        SeqScan scan = new SeqScan(new TransactionId(), table.getId());
+        assertSame(scan, BatchAdapter.of(scan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
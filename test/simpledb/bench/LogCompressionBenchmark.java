@@ -0,0 +1,114 @@
+package simpledb.bench;
+
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the log written with and without compressing the page bytes of
+ * its records. Each transaction deletes a tuple from a page of a table
+ * whose pages are half empty and commits; every tenth one instead has its
+ * page written and is rolled back, which logs a CLR holding the whole page.
+ * <p>
+ * Run with {@code ant runbench -Dbench=LogCompressionBenchmark}. Reports
+ * the log bytes and the CPU time of the logging thread per transaction,
+ * the best of the timed rounds after warming up. The CPU time leaves out
+ * waiting for the log to reach the disk.
+ */
+public class LogCompressionBenchmark {
+
+    private static final int COLUMNS = 8;
+    private static final int ROWS = 50_000;
+    private static final int TRANSACTIONS = 1000;
+    private static final int ABORT_EVERY = 10;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 10_000, null, null);
+        // empties every other slot
+        for (int p = 0; p < table.numPages(); p++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            List<Tuple> tuples = new ArrayList<>();
+            page.iterator().forEachRemaining(tuples::add);
+            for (int i = 0; i < tuples.size(); i += 2) {
+                page.deleteTuple(tuples.get(i));
+            }
+            table.writePage(page);
+        }
+
+        report("uncompressed", table, false);
+        report("compressed", table, true);
+    }
+
+    private static void report(String name, HeapFile table, boolean compress) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long bestBytes = Long.MAX_VALUE;
+        long bestCpu = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            File file = File.createTempFile("simpledb-bench-log", null);
+            LogFile log = new LogFile(file);
+            log.setCompression(compress);
+            HeapPage[] pages = new HeapPage[table.numPages()];
+            for (int p = 0; p < pages.length; p++) {
+                pages[p] = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            }
+
+            long cpu = threads.getCurrentThreadCpuTime();
+            for (int i = 0; i < TRANSACTIONS; i++) {
+                TransactionId tid = new TransactionId();
+                int p = i % pages.length;
+                HeapPage page = pages[p];
+                HeapPage before = page.getBeforeImage();
+                page.deleteTuple(page.iterator().next());
+                log.logWrite(tid, before, page);
+                if (i % ABORT_EVERY == ABORT_EVERY - 1) {
+                    log.force();
+                    table.writePage(page);
+                    log.rollback(tid);
+                    pages[p] = before;
+                } else {
+                    log.logCommit(tid);
+                    page.setBeforeImage();
+                }
+            }
+            cpu = threads.getCurrentThreadCpuTime() - cpu;
+            log.force();
+            long bytes = logBytes(file);
+
+            log.shutdown();
+            for (File segment : segments(file)) {
+                segment.delete();
+            }
+            file.delete();
+            if (round >= WARMUP_ROUNDS) {
+                bestBytes = Math.min(bestBytes, bytes);
+                bestCpu = Math.min(bestCpu, cpu);
+            }
+        }
+        System.out.printf("%-14s %8.1f log bytes/xact  %7.2f us CPU/xact%n",
+                name, (double) bestBytes / TRANSACTIONS, bestCpu / 1e3 / TRANSACTIONS);
+    }
+
+    private static File[] segments(File file) {
+        return file.getParentFile().listFiles((dir, n) -> n.startsWith(file.getName() + "."));
+    }
+
+    private static long logBytes(File file) {
+        long bytes = 0;
+        for (File segment : segments(file)) {
+            bytes += segment.length();
+        }
+        return bytes;
+    }
+}
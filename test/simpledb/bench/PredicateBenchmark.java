@@ -0,0 +1,116 @@
+package simpledb.bench;
+
+import simpledb.common.Utility;
+import simpledb.execution.CompiledPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the interpreted predicate path, Predicate.filter(Tuple) through
+ * Field.compare, with compiled predicates on tuples and on batches, for the
+ * conjunction "f0 &gt; 1000 AND f2 &lt;= 50000" over in-memory rows.
+ * <p>
+ * Run with {@code ant runbench -Dbench=PredicateBenchmark}. Each variant is
+ * warmed up before it is timed; the reported figure is the best of the timed
+ * rounds, in nanoseconds per row.
+ */
+public class PredicateBenchmark {
+
+    private static final int ROWS = 1 << 20;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        TupleDesc td = Utility.getTupleDesc(3);
+        Random rand = new Random(42);
+        Tuple[] tuples = new Tuple[ROWS];
+        TupleBatch[] batches = new TupleBatch[ROWS / TupleBatch.DEFAULT_CAPACITY];
+        for (int b = 0; b < batches.length; b++) {
+            batches[b] = new TupleBatch(td);
+        }
+        for (int i = 0; i < ROWS; i++) {
+            tuples[i] = Utility.getHeapTuple(new int[]{rand.nextInt(1 << 16), rand.nextInt(), rand.nextInt(1 << 16)});
+            batches[i / TupleBatch.DEFAULT_CAPACITY].append(tuples[i]);
+        }
+
+        List<Predicate> preds = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000)),
+                new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(50000)));
+        CompiledPredicate compiled = CompiledPredicate.compile(preds, td);
+
+        report("interpreted tuples", () -> {
+            int n = 0;
+            for (Tuple t : tuples) {
+                boolean match = true;
+                for (Predicate p : preds) {
+                    if (!p.filter(t)) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) n++;
+            }
+            return n;
+        });
+        report("compiled tuples", () -> {
+            int n = 0;
+            for (Tuple t : tuples) {
+                if (compiled.test(t)) n++;
+            }
+            return n;
+        });
+        report("compiled batches", () -> {
+            // filtering narrows the selection vectors, so refill every round
+            for (int i = 0; i < ROWS; i++) {
+                TupleBatch b = batches[i / TupleBatch.DEFAULT_CAPACITY];
+                if (i % TupleBatch.DEFAULT_CAPACITY == 0) {
+                    b.clear();
+                }
+                b.append(tuples[i]);
+            }
+            return 0;
+        }, () -> {
+            int n = 0;
+            for (TupleBatch b : batches) {
+                compiled.filter(b);
+                n += b.size();
+            }
+            return n;
+        });
+    }
+
+    private interface Body {
+        int run();
+    }
+
+    private static void report(String name, Body body) {
+        report(name, null, body);
+    }
+
+    /**
+     * Times body; setup, if given, runs before every round and is not timed.
+     */
+    private static void report(String name, Body setup, Body body) {
+        long best = Long.MAX_VALUE;
+        int result = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            result = body.run();
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.printf("%-20s %6.2f ns/row  (%d matches)%n", name, (double) best / ROWS, result);
+    }
+}
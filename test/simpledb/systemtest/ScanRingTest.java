@@ -0,0 +1,93 @@
+package simpledb.systemtest;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Mixed workload of point reads on a small hot table and full scans of a
+ * table larger than the buffer pool. Scans through a scan ring must not evict
+ * the hot pages.
+ */
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+    private static final int HOT_PAGES = 10;
+    private static final int COLD_PAGES = 4 * POOL_PAGES;
+    private static final int ROUNDS = 5;
+    private static final int POINT_READS = 200;
+
+    /**
+     * Runs the workload and returns the hit rate of the point reads.
+     *
+     * @param useRing true to scan with SeqScan, false to scan the file
+     *                directly through the shared pool
+     */
+    private double pointReadHitRate(boolean useRing) throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES,
+                ReplacementPolicy.forName(ReplacementPolicy.DEFAULT_POLICY, POOL_PAGES));
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(1, 992 * HOT_PAGES, null, null);
+        HeapFile cold = SystemTestUtil.createRandomHeapFile(1, 992 * COLD_PAGES, null, null);
+        assertEquals(COLD_PAGES, cold.numPages());
+        TransactionId tid = new TransactionId();
+        Random r = new Random(42);
+
+        for (int i = 0; i < HOT_PAGES; i++) {
+            pool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+
+        long hotHits = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            int scanned = 0;
+            if (useRing) {
+                OpIterator scan = new SeqScan(tid, cold.getId(), "cold");
+                scan.open();
+                while (scan.hasNext()) {
+                    scan.next();
+                    scanned++;
+                }
+                scan.close();
+            } else {
+                DbFileIterator it = cold.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    it.next();
+                    scanned++;
+                }
+                it.close();
+            }
+            assertEquals(992 * COLD_PAGES, scanned);
+
+            for (int i = 0; i < POINT_READS; i++) {
+                long before = pool.getHitCount();
+                pool.getPage(tid, new HeapPageId(hot.getId(), r.nextInt(HOT_PAGES)), Permissions.READ_ONLY);
+                hotHits += pool.getHitCount() - before;
+            }
+        }
+        pool.transactionComplete(tid);
+        return (double) hotHits / (ROUNDS * POINT_READS);
+    }
+
+    @Test public void ringKeepsHotPagesResident() throws Exception {
+        assertEquals(1.0, pointReadHitRate(true), 0.0);
+    }
+
+    @Test public void ringBeatsSharedScan() throws Exception {
+        double shared = pointReadHitRate(false);
+        double ring = pointReadHitRate(true);
+        assertTrue("ring " + ring + " vs shared " + shared, ring > shared);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanRingTest.class);
+    }
+}